@@ -0,0 +1,70 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Ed25519 public key of each account that may send transactions. The file form has one account per
+// line, "<account> <base64 X.509 public key>"; blank lines and lines starting with # are skipped.
+class AccountKeys {
+    private final Map<String, PublicKey> keys = new ConcurrentHashMap<>();
+
+    static AccountKeys load(Path file) throws IOException {
+        AccountKeys accountKeys = new AccountKeys();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 2) {
+                    throw new IOException(file + ":" + lineNumber + ": expected <account> <public key>");
+                }
+                try {
+                    accountKeys.register(fields[0], decode(fields[1]));
+                } catch (IllegalArgumentException | GeneralSecurityException e) {
+                    throw new IOException(file + ":" + lineNumber + ": bad public key: " + e.getMessage());
+                }
+            }
+        }
+        return accountKeys;
+    }
+
+    static PublicKey decode(String base64) throws GeneralSecurityException {
+        return KeyFactory.getInstance("Ed25519").generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(base64)));
+    }
+
+    void register(String account, PublicKey key) {
+        keys.put(account, key);
+    }
+
+    // Null for an account with no registered key, which can never send
+    PublicKey get(String account) {
+        return keys.get(account);
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    void write(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, PublicKey> entry : keys.entrySet()) {
+                out.write(entry.getKey() + " " + Base64.getEncoder().encodeToString(entry.getValue().getEncoded()));
+                out.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+// Account balances stored by dense index. Ids are interned once through an open-addressing table,
+// after which debits and credits are plain long[] updates with no boxing or allocation.
+// Optionally the ledger remembers which accounts changed since the last takeChanges(), for state diffs.
+class AccountLedger {
+    private String[] ids = new String[16];
+    private long[] balances = new long[16];
+    private int[] slots = new int[32]; // index + 1 of the account in each table slot, 0 when empty
+    private int size;
+    private boolean tracking;
+    private long[] before = new long[16]; // balance before the first change since the last takeChanges()
+    private boolean[] touched = new boolean[16];
+    private int[] touchedAccounts = new int[16];
+    private int touchedCount;
+
+    int intern(String id) {
+        int mask = slots.length - 1;
+        int slot = mix(id.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int index = slots[slot] - 1;
+            String existing = ids[index];
+            if (existing == id || existing.equals(id)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            balances = Arrays.copyOf(balances, size * 2);
+            before = Arrays.copyOf(before, size * 2);
+            touched = Arrays.copyOf(touched, size * 2);
+        }
+        ids[size] = id;
+        slots[slot] = size + 1;
+        size++;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    // Returns -1 for an account that was never interned
+    int indexOf(String id) {
+        int mask = slots.length - 1;
+        int slot = mix(id.hashCode()) & mask;
+        while (slots[slot] != 0) {
+            int index = slots[slot] - 1;
+            if (ids[index].equals(id)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String id(int account) {
+        return ids[account];
+    }
+
+    long balance(int account) {
+        return balances[account];
+    }
+
+    long balance(String id) {
+        int account = indexOf(id);
+        return account < 0 ? 0 : balances[account];
+    }
+
+    void set(int account, long balance) {
+        touch(account);
+        balances[account] = balance;
+    }
+
+    boolean debitIfSufficient(int account, long amount) {
+        if (balances[account] < amount) {
+            return false;
+        }
+        touch(account);
+        balances[account] -= amount;
+        return true;
+    }
+
+    void credit(int account, long amount) {
+        touch(account);
+        balances[account] += amount;
+    }
+
+    void trackChanges() {
+        tracking = true;
+    }
+
+    private void touch(int account) {
+        if (tracking && !touched[account]) {
+            touched[account] = true;
+            before[account] = balances[account];
+            if (touchedCount == touchedAccounts.length) {
+                touchedAccounts = Arrays.copyOf(touchedAccounts, touchedCount * 2);
+            }
+            touchedAccounts[touchedCount++] = account;
+        }
+    }
+
+    // The net change of every account touched since the last call, leaving out those that came back to where they were
+    StateDiff takeChanges(int height) {
+        int changed = 0;
+        for (int i = 0; i < touchedCount; i++) {
+            int account = touchedAccounts[i];
+            if (balances[account] != before[account]) {
+                touchedAccounts[changed++] = account;
+            }
+            touched[account] = false;
+        }
+        String[] changedIds = new String[changed];
+        long[] deltas = new long[changed];
+        for (int i = 0; i < changed; i++) {
+            int account = touchedAccounts[i];
+            changedIds[i] = ids[account];
+            deltas[i] = balances[account] - before[account];
+        }
+        touchedCount = 0;
+        return new StateDiff(height, changedIds, deltas);
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = mix(ids[index].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = index + 1;
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -1,36 +1,116 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.DigestException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.function.Consumer;
 
 class CryptoUtil {
+    private static final ThreadLocal<MessageDigest> SHA3 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA3-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Hashing error: " + e.getMessage());
+        }
+    });
+
     public static String hash(String input) {
+        return sha3(input.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    static Hash256 sha3(byte[] input) {
+        return sha3(input, 0, input.length);
+    }
+
+    static Hash256 sha3(byte[] input, int offset, int length) {
+        MessageDigest digest = SHA3.get();
+        digest.update(input, offset, length);
+        return Hash256.wrap(digest.digest());
+    }
+
+    static Hash256 sha3(ByteBuffer input) {
+        MessageDigest digest = SHA3.get();
+        digest.update(input);
+        return Hash256.wrap(digest.digest());
+    }
+
+    static void sha3Into(byte[] input, int offset, int length, byte[] out) {
+        MessageDigest digest = SHA3.get();
+        digest.update(input, offset, length);
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA3-256");
-            byte[] hashBytes = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : hashBytes) {
-                hexString.append(String.format("%02x", b));
-            }
-            return hexString.toString();
-        } catch (Exception e) {
+            digest.digest(out, 0, Hash256.SIZE);
+        } catch (DigestException e) {
             throw new RuntimeException("Hashing error: " + e.getMessage());
         }
     }
 }
 
-class Transaction {
-    String from, to;
-    int amount, incentive;
+final class Transaction {
+    final String from, to;
+    final int amount, incentive;
+    // Ed25519 signature by the sender over signedBytes(), or null; not part of the hash or equality
+    final byte[] signature;
+    // Computed on first use; a racing thread at worst computes the same immutable value again
+    private Hash256 hash;
+    private Hash256 id;
 
     Transaction(String from, String to, int amount, int incentive) {
+        this(from, to, amount, incentive, null);
+    }
+
+    Transaction(String from, String to, int amount, int incentive, byte[] signature) {
         this.from = from;
         this.to = to;
         this.amount = amount;
         this.incentive = incentive;
+        this.signature = signature;
+    }
+
+    // Content address for indexes and caches. The transaction hash runs the fields together, so
+    // "a" -> "1b" and "a1" -> "b" with the same amount and incentive share one; they never share an id.
+    Hash256 id() {
+        Hash256 i = id;
+        if (i == null) {
+            i = CryptoUtil.sha3(signedBytes());
+            id = i;
+        }
+        return i;
     }
 
-    public String getTransactionHash() {
-        return CryptoUtil.hash(from + incentive + to + amount);
+    // Length-prefixed fields, so that unlike the hash input no two transactions share a message
+    byte[] signedBytes() {
+        byte[] fromBytes = from.getBytes(StandardCharsets.UTF_8);
+        byte[] toBytes = to.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(16 + fromBytes.length + toBytes.length)
+                .putInt(fromBytes.length).put(fromBytes)
+                .putInt(toBytes.length).put(toBytes)
+                .putInt(amount).putInt(incentive)
+                .array();
+    }
+
+    public Hash256 getTransactionHash() {
+        Hash256 h = hash;
+        if (h == null) {
+            h = HashInput.get().append(from).append(incentive).append(to).append(amount).digest();
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Transaction)) return false;
+        Transaction other = (Transaction) o;
+        return amount == other.amount && incentive == other.incentive && from.equals(other.from) && to.equals(other.to);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(from, to, amount, incentive);
     }
 
     @Override
@@ -50,6 +130,11 @@ class Miner {
         this.blockHashScoreArray = blockHashScoreArray;
     }
 
+    // Decoded blocks only record the sealing miner's id
+    static Miner withId(String id) {
+        return new Miner(id, 0, new int[8]);
+    }
+
     public int getBlockSealingScore(int blockNumber) {
         return computationScore * blockHashScoreArray[blockNumber % 8];
     }
@@ -57,135 +142,210 @@ class Miner {
 
 class Block {
     int blockNumber;
-    String prevBlockHash;
+    Hash256 prevBlockHash;
     List<Transaction> transactions;
-    String merkleRoot;
-    String blockHash;
+    private MerkleTree merkleTree;
+    Hash256 merkleRoot;
+    Hash256 blockHash;
     int nonce;
+    Difficulty difficulty;
     Miner selectedMiner;
+    // Root of the StateTree after this block, when the producer keeps one; not covered by blockHash
+    Hash256 stateRoot;
+    // Sealing times of a block built here, for metrics and Flight Recorder events
+    long merkleNanos, nonceNanos;
+
+    Block(int blockNumber, Hash256 prevBlockHash, List<Transaction> transactions, Miner selectedMiner) {
+        this(blockNumber, prevBlockHash, transactions, selectedMiner, Difficulty.DEFAULT);
+    }
+
+    Block(int blockNumber, Hash256 prevBlockHash, List<Transaction> transactions, Miner selectedMiner, Difficulty difficulty) {
+        this(blockNumber, prevBlockHash, transactions, difficulty, selectedMiner);
+        mine(NonceSearch.shared());
+    }
 
-    Block(int blockNumber, String prevBlockHash, List<Transaction> transactions, Miner selectedMiner) {
+    // Everything but the nonce, which the block hash does not depend on; mine() completes the block
+    private Block(int blockNumber, Hash256 prevBlockHash, List<Transaction> transactions, Difficulty difficulty, Miner selectedMiner) {
         this.blockNumber = blockNumber;
         this.prevBlockHash = prevBlockHash;
         this.transactions = new ArrayList<>(transactions);
-        this.merkleRoot = computeMerkleRoot(transactions);
-        this.blockHash = CryptoUtil.hash(prevBlockHash + blockNumber + merkleRoot);
-        this.nonce = computeNonce();
+        long start = System.nanoTime();
+        this.merkleTree = MerkleTree.of(transactions);
+        this.merkleRoot = merkleTree.root();
+        this.merkleNanos = System.nanoTime() - start;
+        this.blockHash = computeBlockHash();
+        this.difficulty = difficulty;
         this.selectedMiner = selectedMiner;
     }
 
-    private String computeMerkleRoot(List<Transaction> transactions) {
-        List<String> hashes = new ArrayList<>();
-        for (Transaction txn : transactions) {
-            hashes.add(txn.getTransactionHash());
-        }
-        while (hashes.size() > 1) {
-            List<String> newHashes = new ArrayList<>();
-            for (int i = 0; i < hashes.size(); i += 2) {
-                if (i + 1 < hashes.size()) {
-                    newHashes.add(CryptoUtil.hash(hashes.get(i) + hashes.get(i + 1)));
-                } else {
-                    newHashes.add(hashes.get(i));
-                }
-            }
-            hashes = newHashes;
+    static Block withoutNonce(int blockNumber, Hash256 prevBlockHash, List<Transaction> transactions, Miner selectedMiner, Difficulty difficulty) {
+        return new Block(blockNumber, prevBlockHash, transactions, difficulty, selectedMiner);
+    }
+
+    void mine(NonceSearch search) {
+        long start = System.nanoTime();
+        this.nonce = computeNonce(blockHash, difficulty, search);
+        this.nonceNanos = System.nanoTime() - start;
+    }
+
+    // Rebuilds a block that was already sealed, without mining it again
+    Block(int blockNumber, Hash256 prevBlockHash, List<Transaction> transactions, Hash256 merkleRoot,
+          Hash256 blockHash, int nonce, Difficulty difficulty, Miner selectedMiner) {
+        this.blockNumber = blockNumber;
+        this.prevBlockHash = prevBlockHash;
+        this.transactions = transactions;
+        this.merkleRoot = merkleRoot;
+        this.blockHash = blockHash;
+        this.nonce = nonce;
+        this.difficulty = difficulty;
+        this.selectedMiner = selectedMiner;
+    }
+
+    MerkleTree merkleTree() {
+        if (merkleTree == null) {
+            merkleTree = MerkleTree.of(transactions);
         }
-        return hashes.isEmpty() ? "" : hashes.get(0);
+        return merkleTree;
     }
 
-    private int computeNonce() {
-        int nonce = 0;
-        while (true) {
-            String hashValue = CryptoUtil.hash(blockHash + nonce);
-            if (hashValue.endsWith("0")) {
-                return nonce;
-            }
-            nonce++;
+    BlockHeader header() {
+        return BlockHeader.of(this);
+    }
+
+    static Hash256 computeMerkleRoot(List<Transaction> transactions) {
+        return MerkleTree.of(transactions).root();
+    }
+
+    private Hash256 computeBlockHash() {
+        return computeBlockHash(prevBlockHash, blockNumber, merkleRoot);
+    }
+
+    static Hash256 computeBlockHash(Hash256 prevBlockHash, int blockNumber, Hash256 merkleRoot) {
+        HashInput input = HashInput.get();
+        // The genesis block links to "0" rather than to a full hash
+        if (prevBlockHash.equals(Hash256.ZERO)) {
+            input.append('0');
+        } else {
+            input.appendHex(prevBlockHash);
         }
+        input.append(blockNumber);
+        if (merkleRoot != null) {
+            input.appendHex(merkleRoot);
+        }
+        return input.digest();
+    }
+
+    static int computeNonce(Hash256 blockHash, Difficulty difficulty) {
+        return computeNonce(blockHash, difficulty, NonceSearch.shared());
+    }
+
+    static int computeNonce(Hash256 blockHash, Difficulty difficulty, NonceSearch search) {
+        // The block hash prefix is the same for every attempt, so it is absorbed only once
+        byte[] prefix = new byte[Hash256.SIZE * 2];
+        blockHash.writeHex(prefix, 0);
+        Sha3Midstate midstate = new Sha3Midstate(prefix);
+        return search.findLowest(nonce -> difficulty.isMetBy(midstate.digestWithNonce(nonce)));
+    }
+
+    static boolean isValidNonce(Hash256 blockHash, int nonce, Difficulty difficulty) {
+        return difficulty.isMetBy(HashInput.get().appendHex(blockHash).append(nonce).digestToScratch());
     }
 
     @Override
     public String toString() {
-        return blockNumber + "\n" + blockHash + "\n" + transactions + "\n" + merkleRoot + "\n" + nonce + " " + selectedMiner.id;
+        return blockNumber + "\n" + blockHash + "\n" + transactions + "\n" + (merkleRoot == null ? "" : merkleRoot) + "\n" + nonce + " " + selectedMiner.id;
     }
 }
 
 public class BlockChain{
-    public static void main(String[] args) {
-        Scanner scanner = new Scanner(System.in);
+    public static void main(String[] args) throws IOException {
+        // Open the store first, so that transactions it already holds are not taken again after a restart
+        String storeDir = System.getProperty("blockchain.store.dir");
+        BlockStore store = storeDir == null ? null : BlockStore.open(Paths.get(storeDir));
+        TransactionIndex transactionIndex = new TransactionIndex();
+        if (store != null) {
+            transactionIndex.confirmStored(store);
+        }
+
+        long parseStart = Metrics.start();
+        // The timers are cumulative for the process, so only what parsing adds to them is subtracted
+        long nestedStart = Metrics.ENABLED ? Metrics.SORT.sumNanos.sum() + Metrics.SIGNATURES.sumNanos.sum() : 0;
+        // Read from the file named on the command line, or from stdin
+        InputReader reader = args.length > 0 ? InputReader.mapped(Paths.get(args[0])) : InputReader.of(System.in);
 
         // Read accounts and balances
-        int numAcc = Integer.parseInt(scanner.nextLine());
-        Map<String, Integer> balances = new HashMap<>();
+        int numAcc = reader.nextInt();
+        AccountLedger ledger = new AccountLedger();
         for (int i = 0; i < numAcc; i++) {
-            String[] parts = scanner.nextLine().split(" ");
-            balances.put(parts[0], Integer.parseInt(parts[1]));
+            ledger.set(ledger.intern(reader.nextToken()), reader.nextLong());
         }
 
-        // Read transactions
-        int numTxn = Integer.parseInt(scanner.nextLine());
-        List<Transaction> unconfirmedTransactions = new ArrayList<>();
-        for (int i = 0; i < numTxn; i++) {
-            String[] parts = scanner.nextLine().split(" ");
-            unconfirmedTransactions.add(new Transaction(parts[0], parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3])));
+        // Read transactions into the mempool, which keeps them sorted by incentive, then by receiver account.
+        // With signatures switched on, transactions that are not signed by their sender never get there.
+        int numTxn = reader.nextInt();
+        Mempool mempool = new Mempool(transactionIndex);
+        SignatureVerifier signatures = SignatureVerifier.fromConfig();
+        Iterator<Transaction> transactions = reader.transactions(numTxn, signatures != null);
+        // Transactions an earlier run on this store already confirmed or rejected are read past, not
+        // taken again: one rejected then could be affordable now, and the rerun would seal new blocks
+        long decided = store == null ? 0 : Math.min(store.inputPosition(), numTxn);
+        for (long i = 0; i < decided; i++) {
+            transactions.next();
+        }
+        Consumer<Transaction> submit = txn -> {
+            ledger.intern(txn.from);
+            ledger.intern(txn.to);
+            long sortStart = Metrics.start();
+            mempool.submit(txn);
+            if (Metrics.ENABLED) {
+                Metrics.SORT.record(sortStart);
+            }
+        };
+        if (signatures == null) {
+            transactions.forEachRemaining(submit);
+        } else {
+            signatures.forEachValid(transactions, submit);
         }
 
         // Read block reward
-        int blockReward = Integer.parseInt(scanner.nextLine());
+        long blockReward = reader.nextLong();
 
         // Read miners
-        int numMiners = Integer.parseInt(scanner.nextLine());
-        List<Miner> miners = new ArrayList<>();
+        int numMiners = reader.nextInt();
+        MinerRegistry miners = new MinerRegistry();
         for (int i = 0; i < numMiners; i++) {
-            String[] parts = scanner.nextLine().split(" ");
-            String id = parts[0].toUpperCase(); // Ensure uppercase miner ID
-            int computationScore = Integer.parseInt(parts[1]);
-            int[] blockHashScoreArray = new int[8];
-            for (int j = 0; j < 8; j++) {
-                blockHashScoreArray[j] = Integer.parseInt(parts[j + 2]);
-            }
-            miners.add(new Miner(id, computationScore, blockHashScoreArray));
+            Miner miner = reader.nextMiner();
+            ledger.intern(miner.id);
+            miners.register(miner);
         }
-        scanner.close();
-
-        // Sort transactions based on incentive, then by receiver account lexicographically
-        unconfirmedTransactions.sort((a, b) -> {
-            if (b.incentive != a.incentive) return Integer.compare(b.incentive, a.incentive);
-            return a.to.compareTo(b.to);
-        });
-
-        String prevBlockHash = "0";
-        int blockNumber = 1;
-        List<Transaction> currentBlockTxns = new ArrayList<>();
-
-        for (Transaction txn : unconfirmedTransactions) {
-            if (balances.getOrDefault(txn.from, 0) >= txn.amount) {
-                balances.put(txn.from, balances.get(txn.from) - txn.amount);
-                balances.put(txn.to, balances.getOrDefault(txn.to, 0) + txn.amount);
-                currentBlockTxns.add(txn);
+        reader.close();
+        if (Metrics.ENABLED) {
+            // Mempool inserts and signature checks happen while reading, and are timed on their own
+            long nestedNanos = Metrics.SORT.sumNanos.sum() + Metrics.SIGNATURES.sumNanos.sum() - nestedStart;
+            Metrics.PARSE.recordNanos(System.nanoTime() - parseStart - nestedNanos);
+        }
+
+        String stateDir = System.getProperty("blockchain.state.dir");
+        String metricsFile = System.getProperty("blockchain.metrics.file");
+        Integer metricsPort = Integer.getInteger("blockchain.metrics.port");
+        HttpServer metricsServer = Metrics.ENABLED && metricsPort != null ? Metrics.serve(metricsPort) : null;
+        try (BlockSink sink = BlockSink.fromConfig();
+             store;
+             StateStore state = stateDir == null ? null : StateStore.open(Paths.get(stateDir));
+             BlockProducer producer = new BlockProducer(ledger, mempool, transactionIndex, miners, blockReward, sink, store, state)) {
+            producer.produceAvailable();
+            producer.flush();
+            if (store != null) {
+                store.recordInputPosition(numTxn);
             }
-            if (currentBlockTxns.size() == 4) {
-                Miner selectedMiner = selectMiner(miners, blockNumber);
-                balances.put(selectedMiner.id, balances.getOrDefault(selectedMiner.id, 0) + blockReward); // Add block reward
-                Block block = new Block(blockNumber, prevBlockHash, currentBlockTxns, selectedMiner);
-                System.out.println(block);
-                prevBlockHash = block.blockHash;
-                blockNumber++;
-                currentBlockTxns.clear();
+        } finally {
+            if (metricsServer != null) {
+                metricsServer.stop(0);
             }
         }
-        if (!currentBlockTxns.isEmpty()) {
-            Miner selectedMiner = selectMiner(miners, blockNumber);
-            balances.put(selectedMiner.id, balances.getOrDefault(selectedMiner.id, 0) + blockReward); // Add block reward
-            Block block = new Block(blockNumber, prevBlockHash, currentBlockTxns, selectedMiner);
-            System.out.println(block);
+        if (Metrics.ENABLED && metricsFile != null) {
+            Metrics.write(Paths.get(metricsFile));
         }
     }
-
-    private static Miner selectMiner(List<Miner> miners, int blockNumber) {
-        return miners.stream()
-                .max(Comparator.comparingInt(miner -> miner.getBlockSealingScore(blockNumber)))
-                .orElse(null);
-    }
 }
 
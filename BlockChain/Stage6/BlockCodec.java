@@ -0,0 +1,43 @@
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// The block record layout of stores written before CompactCodec, kept so they still read back:
+// number, parent hash, Merkle root, block hash, nonce, difficulty, miner id, then the transactions,
+// without signatures. Bit 14 of the difficulty short is set when a 32-byte state root follows.
+final class BlockCodec {
+    private static final int HAS_STATE_ROOT = 0x4000;
+
+    private BlockCodec() {
+    }
+
+    static Block read(DataInput in) throws IOException {
+        int blockNumber = in.readInt();
+        Hash256 prevBlockHash = readHash(in);
+        Hash256 merkleRoot = readHash(in);
+        Hash256 blockHash = readHash(in);
+        int nonce = in.readInt();
+        short encodedDifficulty = in.readShort();
+        Difficulty difficulty = Difficulty.decode((short) (encodedDifficulty & ~HAS_STATE_ROOT));
+        Hash256 stateRoot = (encodedDifficulty & HAS_STATE_ROOT) != 0 ? readHash(in) : null;
+        Miner miner = Miner.withId(in.readUTF());
+        int count = in.readInt();
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            transactions.add(new Transaction(in.readUTF(), in.readUTF(), in.readInt(), in.readInt()));
+        }
+        if (count == 0) {
+            merkleRoot = null;
+        }
+        Block block = new Block(blockNumber, prevBlockHash, transactions, merkleRoot, blockHash, nonce, difficulty, miner);
+        block.stateRoot = stateRoot;
+        return block;
+    }
+
+    private static Hash256 readHash(DataInput in) throws IOException {
+        byte[] bytes = new byte[Hash256.SIZE];
+        in.readFully(bytes);
+        return Hash256.wrap(bytes);
+    }
+}
@@ -0,0 +1,58 @@
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Passes sealed blocks on to another sink and wakes anyone waiting for a new tip. A lock and
+// condition rather than wait/notify, so waiting virtual threads do not pin their carriers.
+class BlockFeed implements BlockSink {
+    private final BlockSink delegate;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition sealed = lock.newCondition();
+    private int tip;
+
+    BlockFeed(BlockSink delegate, int tip) {
+        this.delegate = delegate;
+        this.tip = tip;
+    }
+
+    @Override
+    public void accept(Block block) throws IOException {
+        delegate.accept(block);
+        lock.lock();
+        try {
+            tip = block.blockNumber;
+            sealed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int tip() {
+        lock.lock();
+        try {
+            return tip;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Waits until a block after the given number is sealed, returning the tip (which is unchanged on timeout)
+    int awaitAfter(int blockNumber, long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (tip <= blockNumber && remaining > 0) {
+                remaining = sealed.awaitNanos(remaining);
+            }
+            return tip;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+}
@@ -0,0 +1,115 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// The fixed-size part of a block: everything needed to check the hash chain and the proof of work
+// without loading the transactions. Serialized as exactly SIZE bytes:
+//
+//   [int number][32-byte parent][32-byte Merkle root][32-byte hash][int nonce][short difficulty]
+//   [int transaction count][byte miner id length][63-byte miner id, zero padded][32-byte state root]
+final class BlockHeader {
+    static final int MAX_MINER_ID = 63;
+    static final int SIZE = 4 + 3 * Hash256.SIZE + 4 + 2 + 4 + 1 + MAX_MINER_ID + Hash256.SIZE;
+
+    final int blockNumber;
+    final Hash256 prevBlockHash;
+    final Hash256 merkleRoot; // null for a block without transactions
+    final Hash256 blockHash;
+    final int nonce;
+    final Difficulty difficulty;
+    final String minerId;
+    final int transactionCount;
+    final Hash256 stateRoot; // null when the block does not commit to its state
+
+    BlockHeader(int blockNumber, Hash256 prevBlockHash, Hash256 merkleRoot, Hash256 blockHash, int nonce,
+                Difficulty difficulty, String minerId, int transactionCount, Hash256 stateRoot) {
+        this.blockNumber = blockNumber;
+        this.prevBlockHash = prevBlockHash;
+        this.merkleRoot = merkleRoot;
+        this.blockHash = blockHash;
+        this.nonce = nonce;
+        this.difficulty = difficulty;
+        this.minerId = minerId;
+        this.transactionCount = transactionCount;
+        this.stateRoot = stateRoot;
+    }
+
+    static BlockHeader of(Block block) {
+        return new BlockHeader(block.blockNumber, block.prevBlockHash, block.merkleRoot, block.blockHash, block.nonce,
+                block.difficulty, block.selectedMiner.id, block.transactions.size(), block.stateRoot);
+    }
+
+    void writeTo(ByteBuffer out) {
+        byte[] id = minerId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > MAX_MINER_ID) {
+            throw new IllegalArgumentException("Miner id is longer than " + MAX_MINER_ID + " bytes: " + minerId);
+        }
+        out.putInt(blockNumber);
+        prevBlockHash.writeTo(out);
+        (merkleRoot == null ? Hash256.ZERO : merkleRoot).writeTo(out);
+        blockHash.writeTo(out);
+        out.putInt(nonce);
+        out.putShort(difficulty.encode());
+        out.putInt(transactionCount);
+        out.put((byte) id.length);
+        out.put(id);
+        for (int i = id.length; i < MAX_MINER_ID; i++) {
+            out.put((byte) 0);
+        }
+        (stateRoot == null ? Hash256.ZERO : stateRoot).writeTo(out);
+    }
+
+    static BlockHeader read(ByteBuffer in) {
+        int blockNumber = in.getInt();
+        Hash256 prevBlockHash = Hash256.read(in);
+        Hash256 merkleRoot = Hash256.read(in);
+        Hash256 blockHash = Hash256.read(in);
+        int nonce = in.getInt();
+        Difficulty difficulty = Difficulty.decode(in.getShort());
+        int transactionCount = in.getInt();
+        byte[] id = new byte[in.get() & 0xff];
+        in.get(id);
+        in.position(in.position() + MAX_MINER_ID - id.length);
+        Hash256 stateRoot = Hash256.read(in);
+        return new BlockHeader(blockNumber, prevBlockHash, transactionCount == 0 ? null : merkleRoot, blockHash, nonce,
+                difficulty, new String(id, StandardCharsets.UTF_8), transactionCount,
+                stateRoot.equals(Hash256.ZERO) ? null : stateRoot);
+    }
+
+    // Reassembles the full block once its body has been fetched
+    Block withTransactions(List<Transaction> transactions) {
+        Block block = new Block(blockNumber, prevBlockHash, transactions, merkleRoot, blockHash, nonce, difficulty, Miner.withId(minerId));
+        block.stateRoot = stateRoot;
+        return block;
+    }
+
+    // Returns what is wrong with the difficulty, block hash or proof of work, or null when all hold.
+    // The declared difficulty must be the chain's, or a forger could set its own target to nothing.
+    String checkProofOfWork(Difficulty expected) {
+        if (!difficulty.equals(expected)) {
+            return "difficulty " + difficulty + " is not the chain's " + expected;
+        }
+        if (!Block.computeBlockHash(prevBlockHash, blockNumber, merkleRoot).equals(blockHash)) {
+            return "block hash does not match its contents";
+        }
+        if (!Block.isValidNonce(blockHash, nonce, difficulty)) {
+            return "nonce " + nonce + " does not meet " + difficulty;
+        }
+        return null;
+    }
+
+    // Returns what is wrong with the link from the previous header (null for the first one seen), or null
+    static String checkLink(BlockHeader previous, BlockHeader header) {
+        if (previous == null) {
+            return header.blockNumber == 1 && !header.prevBlockHash.equals(Hash256.ZERO)
+                    ? "the first block does not link to the genesis parent" : null;
+        }
+        if (header.blockNumber != previous.blockNumber + 1) {
+            return "expected block number " + (previous.blockNumber + 1);
+        }
+        if (!header.prevBlockHash.equals(previous.blockHash)) {
+            return "previous block hash does not match block " + previous.blockNumber;
+        }
+        return null;
+    }
+}
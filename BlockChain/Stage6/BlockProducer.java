@@ -0,0 +1,375 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+// Builds blocks from the mempool: each transaction the sender can afford is applied to the ledger,
+// and every full block is rewarded, sealed and written out before the next one is started.
+//
+// With blockchain.pow.batch above 1, sealing is pipelined instead. The block hash does not cover
+// the nonce, so each block is hashed and chained straight away and its nonce is mined on a worker
+// pool while later blocks are built. As each nonce is found, a publisher thread writes out every
+// mined block at the head of the queue, so blocks still go out strictly in order and as soon as
+// every block before them is mined; the output is the same. close() shuts both down.
+//
+// With blockchain.state.root, each block also carries the root of a StateTree over the balances
+// after it, updated from just the accounts the block changed.
+//
+// The ledger and state tree are only changed while holding ledgerLock(), and never while a nonce is
+// mined or a block is written out, so a reader that takes the lock waits for at most one update.
+class BlockProducer implements Closeable {
+    private static final int BLOCK_SIZE = Integer.getInteger("blockchain.blockSize", 4);
+    private static final int EXEC_THREADS = Integer.getInteger("blockchain.exec.threads", 1);
+    private static final int EXEC_WINDOW = Integer.getInteger("blockchain.exec.window", 4096);
+    private static final int POW_BATCH = Integer.getInteger("blockchain.pow.batch", 1);
+    private static final boolean STATE_ROOT = Boolean.getBoolean("blockchain.state.root");
+    // Each pipelined block is mined by one worker; the parallelism is across blocks
+    private static final NonceSearch SEQUENTIAL_SEARCH = new NonceSearch(1, 1);
+
+    private final AccountLedger ledger;
+    private final Mempool mempool;
+    private final TransactionIndex transactionIndex;
+    private final MinerRegistry miners;
+    private final long blockReward;
+    private final BlockSink sink;
+    private final BlockStore store;
+    private final StateStore state;
+    private final StateTree stateTree;
+    // Fixed for the whole chain, so any node can check a block's difficulty without its history
+    private final Difficulty difficulty = Difficulty.fromConfig();
+    private final ParallelExecutor executor;
+    private final ForkJoinPool miningPool;
+    private final ExecutorService publisher;
+    private final Object ledgerLock = new Object();
+    // Blocks sealed but not yet written out, oldest first; guarded by its own monitor
+    private final ArrayDeque<PendingBlock> pending = new ArrayDeque<>();
+    private Throwable publishFailure; // guarded by pending
+    private final List<Transaction> currentBlockTxns = new ArrayList<>();
+    private Hash256 prevBlockHash = Hash256.ZERO;
+    private int blockNumber = 1;
+    private int stateTreeBlock;
+
+    BlockProducer(AccountLedger ledger, Mempool mempool, TransactionIndex transactionIndex, MinerRegistry miners, long blockReward,
+                  BlockSink sink, BlockStore store, StateStore state) throws IOException {
+        // An empty block is never full, so every round would seal empty blocks forever
+        if (BLOCK_SIZE < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + BLOCK_SIZE);
+        }
+        this.ledger = ledger;
+        this.mempool = mempool;
+        this.transactionIndex = transactionIndex;
+        this.miners = miners;
+        this.blockReward = blockReward;
+        this.sink = sink;
+        this.store = store;
+        this.state = state;
+        this.executor = EXEC_THREADS > 1 ? new ParallelExecutor(ledger, ledgerLock, EXEC_THREADS) : null;
+        this.miningPool = POW_BATCH > 1 ? new ForkJoinPool(NonceSearch.THREADS) : null;
+        this.publisher = POW_BATCH > 1 ? Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "block-publisher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        // Continue the stored chain instead of starting a new one. The ledger holds the input's
+        // balances, so the stored blocks are replayed onto it, or restored from the state store.
+        if (store != null && store.tip() != null) {
+            prevBlockHash = store.tip().blockHash;
+            blockNumber = store.tip().blockNumber + 1;
+        }
+        if (state != null) {
+            resumeState(blockNumber - 1);
+        } else {
+            replayStored(1, blockNumber - 1);
+        }
+        this.stateTree = STATE_ROOT ? StateTree.of(ledger) : null;
+        this.stateTreeBlock = blockNumber - 1;
+        if (state != null || stateTree != null) {
+            ledger.trackChanges();
+        }
+    }
+
+    // Lines the state store up with the chain: the newest balances it holds replace the ones the
+    // ledger was given, and the stored blocks after them are replayed and recorded up to the tip
+    private void resumeState(int height) throws IOException {
+        state.rewind(height);
+        int restored = 0;
+        if (height > 0 && state.height() > 0 && state.restore(state.height(), ledger)) {
+            restored = state.height();
+        }
+        if (restored == 0) {
+            state.snapshot(0, ledger);
+        }
+        ledger.trackChanges();
+        replayStored(restored + 1, height);
+    }
+
+    // Applies stored blocks from..to to the ledger, their transfers and block rewards, and records
+    // each one's changes in the state store if there is one
+    private void replayStored(int from, int to) throws IOException {
+        if (from > to) {
+            return;
+        }
+        if (store.firstNumber() > from) {
+            throw new IOException("Cannot rebuild the balances: the block store starts at block " + store.firstNumber());
+        }
+        for (int number = from; number <= to; number++) {
+            Block block = store.get(number);
+            for (Transaction txn : block.transactions) {
+                if (!ledger.debitIfSufficient(ledger.intern(txn.from), txn.amount)) {
+                    throw new IOException("Stored block " + number + " does not follow from the input: "
+                            + txn.from + " cannot afford " + txn);
+                }
+                ledger.credit(ledger.intern(txn.to), txn.amount);
+            }
+            ledger.credit(ledger.intern(block.selectedMiner.id), blockReward);
+            if (state != null) {
+                state.record(ledger.takeChanges(number), ledger);
+            }
+        }
+    }
+
+    // Held while the ledger or state tree changes; readers on other threads take it too
+    Object ledgerLock() {
+        return ledgerLock;
+    }
+
+    // Null unless blockchain.state.root is set; commits to the balances after the last sealed block,
+    // which may still be being mined. Read it holding ledgerLock().
+    StateTree stateTree() {
+        return stateTree;
+    }
+
+    // The block whose balances the state tree holds. Read it holding ledgerLock().
+    int stateTreeBlock() {
+        return stateTreeBlock;
+    }
+
+    // Seals blocks until the mempool runs dry, leaving any partly filled block open
+    void produceAvailable() throws IOException {
+        if (executor != null) {
+            produceInWindows();
+            return;
+        }
+        while (true) {
+            currentBlockTxns.addAll(mempool.take(BLOCK_SIZE - currentBlockTxns.size(), this::apply));
+            if (currentBlockTxns.size() < BLOCK_SIZE) {
+                return;
+            }
+            seal();
+        }
+    }
+
+    private void produceInWindows() throws IOException {
+        ParallelExecutor.Listener listener = new ParallelExecutor.Listener() {
+            @Override
+            public void accepted(Transaction txn) throws IOException {
+                if (Metrics.ENABLED) {
+                    Metrics.TXNS_ACCEPTED.increment();
+                }
+                currentBlockTxns.add(txn);
+                if (currentBlockTxns.size() == BLOCK_SIZE) {
+                    seal();
+                }
+            }
+
+            @Override
+            public void rejected(Transaction txn) {
+                if (Metrics.ENABLED) {
+                    Metrics.TXNS_REJECTED.increment();
+                }
+                transactionIndex.reject(txn);
+            }
+        };
+        List<Transaction> window = mempool.poll(EXEC_WINDOW);
+        while (!window.isEmpty()) {
+            long start = Metrics.start();
+            executor.execute(window, listener);
+            if (Metrics.ENABLED) {
+                // Includes the sealing of blocks completed inside the window
+                Metrics.VALIDATION.record(start);
+            }
+            window = mempool.poll(EXEC_WINDOW);
+        }
+    }
+
+    // Seals the partly filled block, if there is one, and writes out every block still being mined
+    void flush() throws IOException {
+        if (!currentBlockTxns.isEmpty()) {
+            seal();
+        }
+        awaitPublished(0);
+    }
+
+    private boolean apply(Transaction txn) {
+        long start = Metrics.start();
+        boolean applied;
+        synchronized (ledgerLock) {
+            applied = ledger.debitIfSufficient(ledger.intern(txn.from), txn.amount);
+            if (applied) {
+                ledger.credit(ledger.intern(txn.to), txn.amount);
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.VALIDATION.record(start);
+            (applied ? Metrics.TXNS_ACCEPTED : Metrics.TXNS_REJECTED).increment();
+        }
+        return applied;
+    }
+
+    private void seal() throws IOException {
+        BlockSealedEvent event = new BlockSealedEvent();
+        event.begin();
+        long selectStart = Metrics.start();
+        Miner selectedMiner = miners.select(blockNumber);
+        if (Metrics.ENABLED) {
+            Metrics.SELECT_MINER.record(selectStart);
+        }
+        Hash256 stateRoot = null;
+        StateDiff diff = null;
+        synchronized (ledgerLock) {
+            ledger.credit(ledger.intern(selectedMiner.id), blockReward); // Add block reward
+            if (state != null || stateTree != null) {
+                diff = ledger.takeChanges(blockNumber);
+            }
+            if (stateTree != null) {
+                stateTree.update(diff, ledger);
+                stateRoot = stateTree.root();
+                stateTreeBlock = blockNumber;
+            }
+        }
+        // Only this thread changes the ledger, so the diff can be written out without the lock
+        if (state != null) {
+            state.record(diff, ledger);
+        }
+        Block block;
+        if (miningPool == null) {
+            block = new Block(blockNumber, prevBlockHash, currentBlockTxns, selectedMiner, difficulty);
+            block.stateRoot = stateRoot;
+            publish(block, event);
+        } else {
+            block = Block.withoutNonce(blockNumber, prevBlockHash, currentBlockTxns, selectedMiner, difficulty);
+            block.stateRoot = stateRoot;
+            Block toMine = block;
+            PendingBlock entry = new PendingBlock(block, event);
+            synchronized (pending) {
+                pending.add(entry);
+            }
+            CompletableFuture.runAsync(() -> toMine.mine(SEQUENTIAL_SEARCH), miningPool)
+                    .whenCompleteAsync((ignored, failure) -> publishMined(entry, failure), publisher);
+            awaitPublished(POW_BATCH);
+        }
+        prevBlockHash = block.blockHash;
+        blockNumber++;
+        currentBlockTxns.clear();
+    }
+
+    // Runs on the publisher thread once entry is mined: writes out every mined block at the head of
+    // the queue. A failure stops publishing and is reported by the next awaitPublished().
+    private void publishMined(PendingBlock entry, Throwable failure) {
+        synchronized (pending) {
+            entry.mined = true;
+            if (failure != null && publishFailure == null) {
+                publishFailure = failure;
+            }
+        }
+        while (true) {
+            PendingBlock head;
+            synchronized (pending) {
+                head = pending.peek();
+                if (head == null || !head.mined || publishFailure != null) {
+                    pending.notifyAll();
+                    return;
+                }
+            }
+            // Written without the monitor, so the producer can queue the next block meanwhile
+            try {
+                publish(head.block, head.event);
+            } catch (IOException | RuntimeException e) {
+                synchronized (pending) {
+                    publishFailure = e;
+                    pending.notifyAll();
+                }
+                return;
+            }
+            synchronized (pending) {
+                pending.poll();
+                pending.notifyAll();
+            }
+        }
+    }
+
+    // Waits until at most maxPending sealed blocks are still to be written out
+    private void awaitPublished(int maxPending) throws IOException {
+        synchronized (pending) {
+            try {
+                while (publishFailure == null && pending.size() > maxPending) {
+                    pending.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for mined blocks");
+            }
+            if (publishFailure instanceof IOException) {
+                throw (IOException) publishFailure;
+            }
+            if (publishFailure != null) {
+                throw new IOException("Mining or writing out a block failed", publishFailure);
+            }
+        }
+    }
+
+    private void publish(Block block, BlockSealedEvent event) throws IOException {
+        for (int i = 0; i < block.transactions.size(); i++) {
+            transactionIndex.confirm(block.transactions.get(i), block.blockNumber, i);
+        }
+        // Stored before it is announced, so anyone told about the block can read it back
+        if (store != null) {
+            store.append(block);
+        }
+        sink.accept(block);
+        if (Metrics.ENABLED) {
+            Metrics.MERKLE_ROOT.recordNanos(block.merkleNanos);
+            Metrics.NONCE.recordNanos(block.nonceNanos);
+            Metrics.BLOCKS.increment();
+        }
+        if (event.shouldCommit()) {
+            event.blockNumber = block.blockNumber;
+            event.transactions = block.transactions.size();
+            event.nonce = block.nonce;
+            event.difficulty = block.difficulty.toString();
+            event.miner = block.selectedMiner.id;
+            event.merkleNanos = block.merkleNanos;
+            event.nonceNanos = block.nonceNanos;
+            event.commit();
+        }
+    }
+
+    // Stops the mining workers; blocks still being mined are dropped, so flush() first to keep them
+    @Override
+    public void close() {
+        if (miningPool != null) {
+            miningPool.shutdownNow();
+            publisher.shutdownNow();
+        }
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    private static final class PendingBlock {
+        final Block block;
+        final BlockSealedEvent event;
+        boolean mined; // guarded by pending
+
+        PendingBlock(Block block, BlockSealedEvent event) {
+            this.block = block;
+            this.event = event;
+        }
+    }
+}
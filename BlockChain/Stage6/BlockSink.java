@@ -0,0 +1,215 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Destination for sealed blocks, picked by main from the blockchain.sink* system properties
+interface BlockSink extends Closeable {
+    void accept(Block block) throws IOException;
+
+    static BlockSink fromConfig() throws IOException {
+        String kind = System.getProperty("blockchain.sink", "text");
+        String file = System.getProperty("blockchain.sink.file");
+        int bufferSize = Integer.getInteger("blockchain.sink.buffer", 1 << 20);
+        switch (kind) {
+            case "text":
+                return file == null ? new TextBlockSink(System.out, bufferSize, false)
+                        : new TextBlockSink(new FileOutputStream(file), bufferSize, true);
+            case "binary":
+            case "compact":
+                return file == null ? new CompactBlockSink(System.out, bufferSize, false)
+                        : new CompactBlockSink(new FileOutputStream(file), bufferSize, true);
+            case "null":
+                return new NullBlockSink();
+            default:
+                throw new IllegalArgumentException("Unknown block sink: " + kind);
+        }
+    }
+}
+
+// Writes the same text as System.out.println(block), through one large buffer
+class TextBlockSink implements BlockSink {
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final boolean closeTarget;
+    private final Charset charset = Charset.defaultCharset();
+    private final byte[] buffer;
+    private int length;
+
+    TextBlockSink(OutputStream out, int bufferSize, boolean closeTarget) {
+        this.out = out;
+        this.closeTarget = closeTarget;
+        this.buffer = new byte[Math.max(bufferSize, 256)];
+    }
+
+    @Override
+    public void accept(Block block) throws IOException {
+        writeNumber(block.blockNumber);
+        write('\n');
+        writeHash(block.blockHash);
+        write('\n');
+        write('[');
+        List<Transaction> transactions = block.transactions;
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction txn = transactions.get(i);
+            if (i > 0) {
+                write(',');
+                write(' ');
+            }
+            write('[');
+            write('"');
+            writeString(txn.from);
+            write('"');
+            write(',');
+            write(' ');
+            write('"');
+            writeString(txn.to);
+            write('"');
+            write(',');
+            write(' ');
+            writeNumber(txn.amount);
+            write(',');
+            write(' ');
+            writeNumber(txn.incentive);
+            write(']');
+        }
+        write(']');
+        write('\n');
+        if (block.merkleRoot != null) {
+            writeHash(block.merkleRoot);
+        }
+        write('\n');
+        writeNumber(block.nonce);
+        write(' ');
+        writeString(block.selectedMiner.id);
+        writeBytes(LINE_SEPARATOR);
+    }
+
+    private void write(char c) throws IOException {
+        if (length == buffer.length) {
+            flushBuffer();
+        }
+        buffer[length++] = (byte) c;
+    }
+
+    private void writeNumber(int value) throws IOException {
+        if (buffer.length - length < 11) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte t = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = t;
+        }
+    }
+
+    private void writeHash(Hash256 hash) throws IOException {
+        if (buffer.length - length < Hash256.SIZE * 2) {
+            flushBuffer();
+        }
+        hash.writeHex(buffer, length);
+        length += Hash256.SIZE * 2;
+    }
+
+    private void writeString(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                writeBytes(s.getBytes(charset));
+                return;
+            }
+        }
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (buffer.length - length < bytes.length) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        out.flush();
+        if (closeTarget) {
+            out.close();
+        }
+    }
+}
+
+// Versioned CompactCodec records, each encoded into one reused buffer
+class CompactBlockSink implements BlockSink {
+    private final OutputStream out;
+    private final OutputStream target;
+    private final boolean closeTarget;
+    private ByteBuffer record = ByteBuffer.allocate(4096);
+
+    CompactBlockSink(OutputStream target, int bufferSize, boolean closeTarget) {
+        this.out = new BufferedOutputStream(target, bufferSize);
+        this.target = target;
+        this.closeTarget = closeTarget;
+    }
+
+    @Override
+    public void accept(Block block) throws IOException {
+        while (true) {
+            try {
+                CompactCodec.write(block, record.clear());
+                break;
+            } catch (BufferOverflowException e) {
+                record = ByteBuffer.allocate(record.capacity() * 2);
+            }
+        }
+        out.write(record.array(), 0, record.position());
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.flush();
+        if (closeTarget) {
+            target.close();
+        }
+    }
+}
+
+// Discards blocks, for measuring sealing without output costs
+class NullBlockSink implements BlockSink {
+    long blocks;
+
+    @Override
+    public void accept(Block block) {
+        blocks++;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,458 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+// Append-only block store. Blocks are written as CompactCodec records, signatures included, to
+// numbered segment files:
+//
+//   segment-000000.dat   [int length][int crc32][record] ...
+//   segment-000000.idx   [int blockNumber][32-byte hash][int offset] ... written when the segment is sealed
+//   headers.dat          one fixed-size BlockHeader per block, in block order
+//   input.pos            [long] how many of the input's transactions earlier runs have decided
+//
+// Reads go through read-only memory maps of the segments. On open, sealed segments are indexed
+// from their .idx files and only the last segment is scanned; a torn record at its end is cut off.
+// The header file is then cut back or rebuilt to match the blocks, so headers can be read without
+// touching any body.
+//
+// openReadOnly() is for tools that inspect a store another process may own. It never writes: a torn
+// record is left in place and ignored, missing .idx files are not written, and headers the file does
+// not hold are decoded from their blocks instead of being rebuilt.
+//
+// Stores written before CompactCodec hold BlockCodec records, which are still read. Such a record
+// starts with the top byte of its block number, 0 below 2^24, and a CompactCodec record with its
+// non-zero version, so each record is decoded by the layout it was written in.
+class BlockStore implements Closeable {
+    private static final int RECORD_HEADER = 8;
+    private static final int INDEX_ENTRY = 4 + Hash256.SIZE + 4;
+
+    private final Path dir;
+    private final long segmentSize;
+    private final boolean sync;
+    private final boolean readOnly;
+    private final List<Segment> segments = new ArrayList<>();
+    private FileChannel headers;
+    private final Map<Hash256, Long> byHash = new HashMap<>();
+    private long[] byNumber = new long[1024];
+    private int firstNumber = -1;
+    private int count;
+    private long headerCount; // headers in headers.dat that match their blocks
+    private Block tip;
+
+    private BlockStore(Path dir, long segmentSize, boolean sync, boolean readOnly) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.readOnly = readOnly;
+    }
+
+    static BlockStore open(Path dir) throws IOException {
+        return open(dir, Long.getLong("blockchain.store.segmentSize", 64L << 20),
+                Boolean.getBoolean("blockchain.store.sync"));
+    }
+
+    static BlockStore open(Path dir, long segmentSize, boolean sync) throws IOException {
+        // Index entries hold int offsets into a segment
+        if (segmentSize < 1 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + Integer.MAX_VALUE + " bytes: " + segmentSize);
+        }
+        Files.createDirectories(dir);
+        BlockStore store = new BlockStore(dir, segmentSize, sync, false);
+        store.recover();
+        return store;
+    }
+
+    static BlockStore openReadOnly(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("No block store at " + dir);
+        }
+        BlockStore store = new BlockStore(dir, 0, false, true);
+        store.recover();
+        return store;
+    }
+
+    private void recover() throws IOException {
+        for (int id = 0; Files.exists(dataPath(id)); id++) {
+            segments.add(new Segment(id, readOnly ? FileChannel.open(dataPath(id), StandardOpenOption.READ)
+                    : FileChannel.open(dataPath(id), StandardOpenOption.READ, StandardOpenOption.WRITE)));
+        }
+        if (segments.isEmpty() && !readOnly) {
+            segments.add(new Segment(0, FileChannel.open(dataPath(0), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)));
+        }
+        int last = segments.size() - 1;
+        for (Segment segment : segments) {
+            if (segment.id < last && Files.exists(indexPath(segment.id))) {
+                loadIndex(segment);
+            } else {
+                scan(segment);
+                if (segment.id < last && !readOnly) {
+                    writeIndex(segment);
+                }
+            }
+        }
+        if (count > 0) {
+            tip = get(firstNumber + count - 1);
+        }
+        recoverHeaders();
+    }
+
+    private void recoverHeaders() throws IOException {
+        if (readOnly) {
+            Path file = dir.resolve("headers.dat");
+            if (Files.exists(file)) {
+                headers = FileChannel.open(file, StandardOpenOption.READ);
+                headerCount = Math.min(headers.size() / BlockHeader.SIZE, count);
+                if (headerCount > 0 && !headerMatches(firstNumber + (int) headerCount - 1)) {
+                    headerCount = 0;
+                }
+            }
+            return;
+        }
+        headers = FileChannel.open(dir.resolve("headers.dat"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long stored = Math.min(headers.size() / BlockHeader.SIZE, count);
+        // A last header that does not match its block means a different header layout: rebuild them all
+        if (stored > 0 && !headerMatches(firstNumber + (int) stored - 1)) {
+            stored = 0;
+        }
+        if (headers.size() != stored * BlockHeader.SIZE) {
+            headers.truncate(stored * BlockHeader.SIZE);
+        }
+        for (long i = stored; i < count; i++) {
+            BlockHeader header = get(firstNumber + (int) i).header();
+            writeHeader(header.blockNumber, encodeHeader(header));
+        }
+        headers.force(true);
+        headerCount = count;
+    }
+
+    private static ByteBuffer encodeHeader(BlockHeader header) {
+        ByteBuffer out = ByteBuffer.allocate(BlockHeader.SIZE);
+        header.writeTo(out);
+        out.flip();
+        return out;
+    }
+
+    private void writeHeader(int blockNumber, ByteBuffer out) throws IOException {
+        long position = (long) (blockNumber - firstNumber) * BlockHeader.SIZE;
+        while (out.hasRemaining()) {
+            headers.write(out, position + out.position());
+        }
+    }
+
+    private void loadIndex(Segment segment) throws IOException {
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath(segment.id)));
+        while (index.remaining() >= INDEX_ENTRY) {
+            int blockNumber = index.getInt();
+            Hash256 hash = Hash256.read(index);
+            index(blockNumber, hash, location(segment.id, index.getInt()));
+        }
+        segment.size = segment.channel.size();
+    }
+
+    // Re-indexes a segment from its records and truncates anything after the last intact one
+    private void scan(Segment segment) throws IOException {
+        long fileSize = segment.channel.size();
+        MappedByteBuffer data = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        int offset = 0;
+        while (offset + RECORD_HEADER <= fileSize) {
+            int length = data.getInt(offset);
+            int crc = data.getInt(offset + 4);
+            if (length <= 0 || offset + RECORD_HEADER + (long) length > fileSize
+                    || crc != crc(data, offset + RECORD_HEADER, length)) {
+                break;
+            }
+            Block block = decode(data, offset + RECORD_HEADER, length);
+            index(block.blockNumber, block.blockHash, location(segment.id, offset));
+            segment.addIndexEntry(block.blockNumber, block.blockHash, offset);
+            offset += RECORD_HEADER + length;
+        }
+        if (offset < fileSize && !readOnly) {
+            segment.channel.truncate(offset);
+            segment.channel.force(true);
+        }
+        segment.size = offset;
+    }
+
+    private void writeIndex(Segment segment) throws IOException {
+        Path tmp = dir.resolve("segment-" + String.format("%06d", segment.id) + ".idx.tmp");
+        Files.write(tmp, segment.index.toByteArray());
+        Files.move(tmp, indexPath(segment.id), StandardCopyOption.ATOMIC_MOVE);
+        segment.index.reset();
+    }
+
+    synchronized void append(Block block) throws IOException {
+        if (readOnly) {
+            throw new IllegalStateException("Block store " + dir + " is open read-only");
+        }
+        if (count > 0 && block.blockNumber != firstNumber + count) {
+            throw new IllegalArgumentException("Expected block " + (firstNumber + count) + " but got " + block.blockNumber);
+        }
+        // Encoded before anything is written, so a header that cannot be stored leaves no block behind
+        ByteBuffer header = encodeHeader(block.header());
+        byte[] record = CompactCodec.encode(block).array();
+
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.size > 0 && segment.size + RECORD_HEADER + record.length > segmentSize) {
+            segment.channel.force(true);
+            writeIndex(segment);
+            segment = new Segment(segment.id + 1, FileChannel.open(dataPath(segment.id + 1), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.add(segment);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer out = ByteBuffer.allocate(RECORD_HEADER + record.length);
+        out.putInt(record.length).putInt((int) crc.getValue()).put(record).flip();
+        long offset = segment.size;
+        while (out.hasRemaining()) {
+            segment.channel.write(out, segment.size + out.position());
+        }
+        if (sync) {
+            segment.channel.force(false);
+        }
+        segment.size += RECORD_HEADER + record.length;
+        index(block.blockNumber, block.blockHash, location(segment.id, (int) offset));
+        segment.addIndexEntry(block.blockNumber, block.blockHash, (int) offset);
+        // Written after the block, so a crash in between only leaves a header to rebuild
+        writeHeader(block.blockNumber, header);
+        if (sync) {
+            headers.force(false);
+        }
+        headerCount++;
+        tip = block;
+    }
+
+    synchronized Block get(int blockNumber) throws IOException {
+        if (count == 0 || blockNumber < firstNumber || blockNumber >= firstNumber + count) {
+            return null;
+        }
+        return read(byNumber[blockNumber - firstNumber]);
+    }
+
+    synchronized BlockHeader header(int blockNumber) throws IOException {
+        if (count == 0 || blockNumber < firstNumber || blockNumber >= firstNumber + count) {
+            return null;
+        }
+        if (blockNumber - firstNumber >= headerCount) {
+            return get(blockNumber).header();
+        }
+        return readHeader(blockNumber);
+    }
+
+    private boolean headerMatches(int blockNumber) throws IOException {
+        Block block = get(blockNumber);
+        try {
+            BlockHeader header = readHeader(blockNumber);
+            return header.blockNumber == block.blockNumber && header.blockHash.equals(block.blockHash)
+                    && Objects.equals(header.stateRoot, block.stateRoot);
+        } catch (RuntimeException e) {
+            // Bytes from another layout may not even decode
+            return false;
+        }
+    }
+
+    private BlockHeader readHeader(int blockNumber) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(BlockHeader.SIZE);
+        long position = (long) (blockNumber - firstNumber) * BlockHeader.SIZE;
+        while (in.hasRemaining()) {
+            if (headers.read(in, position + in.position()) < 0) {
+                throw new IOException("Header file ends before block " + blockNumber);
+            }
+        }
+        in.flip();
+        return BlockHeader.read(in);
+    }
+
+    // Only the transactions of a block, for followers that already hold its header
+    List<Transaction> body(int blockNumber) throws IOException {
+        Block block = get(blockNumber);
+        return block == null ? null : block.transactions;
+    }
+
+    // How many of the input's transactions, in input order, earlier runs on this store have already
+    // confirmed or rejected; 0 for a new store
+    synchronized long inputPosition() throws IOException {
+        Path file = dir.resolve("input.pos");
+        return Files.exists(file) ? ByteBuffer.wrap(Files.readAllBytes(file)).getLong() : 0;
+    }
+
+    // Records that the first position input transactions have all been decided
+    synchronized void recordInputPosition(long position) throws IOException {
+        if (readOnly) {
+            throw new IllegalStateException("Block store " + dir + " is open read-only");
+        }
+        if (position <= inputPosition()) {
+            return;
+        }
+        Path tmp = dir.resolve("input.pos.tmp");
+        Files.write(tmp, ByteBuffer.allocate(8).putLong(position).array());
+        Files.move(tmp, dir.resolve("input.pos"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    synchronized int firstNumber() {
+        return firstNumber;
+    }
+
+    synchronized Block get(Hash256 blockHash) throws IOException {
+        Long location = byHash.get(blockHash);
+        return location == null ? null : read(location);
+    }
+
+    synchronized Block tip() {
+        return tip;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    private void index(int blockNumber, Hash256 hash, long location) {
+        if (count == 0) {
+            firstNumber = blockNumber;
+        } else if (blockNumber != firstNumber + count) {
+            throw new IllegalStateException("Block store is not contiguous at block " + blockNumber);
+        }
+        if (count == byNumber.length) {
+            byNumber = Arrays.copyOf(byNumber, count * 2);
+        }
+        byNumber[count++] = location;
+        byHash.put(hash, location);
+    }
+
+    private Block read(long location) throws IOException {
+        Segment segment = segments.get(segmentOf(location));
+        int offset = offsetOf(location);
+        MappedByteBuffer data = segment.map(offset + RECORD_HEADER);
+        int length = data.getInt(offset);
+        data = segment.map(offset + RECORD_HEADER + length);
+        return decode(data, offset + RECORD_HEADER, length);
+    }
+
+    private static Block decode(ByteBuffer data, int offset, int length) throws IOException {
+        ByteBuffer record = data.duplicate();
+        record.limit(offset + length).position(offset);
+        if (record.get(offset) == 0) {
+            return BlockCodec.read(new DataInputStream(new ByteBufferInputStream(record)));
+        }
+        try {
+            return CompactCodec.read(record);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Cannot decode the block record at offset " + offset + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static int crc(ByteBuffer data, int offset, int length) {
+        ByteBuffer record = data.duplicate();
+        record.limit(offset + length).position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xffffffffL);
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private Path dataPath(int id) {
+        return dir.resolve("segment-" + String.format("%06d", id) + ".dat");
+    }
+
+    private Path indexPath(int id) {
+        return dir.resolve("segment-" + String.format("%06d", id) + ".idx");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            if (!readOnly) {
+                segment.channel.force(true);
+            }
+            segment.channel.close();
+        }
+        if (headers != null) {
+            if (!readOnly) {
+                headers.force(true);
+            }
+            headers.close();
+        }
+    }
+
+    private static final class Segment {
+        final int id;
+        final FileChannel channel;
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        long size;
+        MappedByteBuffer mapped;
+
+        Segment(int id, FileChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        void addIndexEntry(int blockNumber, Hash256 hash, int offset) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+            entry.putInt(blockNumber);
+            hash.writeTo(entry);
+            entry.putInt(offset);
+            index.write(entry.array(), 0, INDEX_ENTRY);
+        }
+
+        // The active segment keeps growing, so it is remapped when a read goes past the current mapping
+        MappedByteBuffer map(long end) throws IOException {
+            if (mapped == null || mapped.capacity() < end) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return mapped;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Checks that a chain is internally consistent. Blocks are verified in batches: the per-block
+// checks (transaction hashes, Merkle root, block hash, difficulty and proof of work) run in
+// parallel, then the hash links and a balance replay, including block rewards, run in order. The
+// first invalid block is reported. Every block must declare the chain's difficulty,
+// -Dblockchain.pow.difficulty, as for BlockChain.
+//
+//   java ChainVerifier <store directory | printed chain file> [original input file]
+//
+// The original input supplies the starting balances and block reward for the replay; without it
+// only the hashes and proof of work are checked. A signed input is read with -Dblockchain.sig.keys,
+// as for BlockChain; the signatures themselves are not checked again. Blocks that carry a state root are also checked
+// against a StateTree kept in step with the replay.
+class ChainVerifier {
+    private static final int BATCH_SIZE = 4096;
+    private static final int TASK_SIZE = 16;
+
+    static final class Result {
+        final long blocks;
+        final int firstInvalidBlock; // -1 when the whole chain is valid
+        final String reason;
+
+        Result(long blocks, int firstInvalidBlock, String reason) {
+            this.blocks = blocks;
+            this.firstInvalidBlock = firstInvalidBlock;
+            this.reason = reason;
+        }
+
+        boolean isValid() {
+            return firstInvalidBlock < 0;
+        }
+
+        @Override
+        public String toString() {
+            return isValid() ? "Verified " + blocks + " blocks" : "Block " + firstInvalidBlock + " is invalid: " + reason;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final Difficulty difficulty;
+    private final AccountLedger ledger;
+    private final long blockReward;
+    private StateTree stateTree;
+
+    // Every block must declare the chain's difficulty. A null ledger skips the balance replay.
+    ChainVerifier(ForkJoinPool pool, Difficulty difficulty, AccountLedger ledger, long blockReward) {
+        this.pool = pool;
+        this.difficulty = difficulty;
+        this.ledger = ledger;
+        this.blockReward = blockReward;
+    }
+
+    Result verify(Iterator<Block> chain) {
+        List<Block> batch = new ArrayList<>(BATCH_SIZE);
+        BlockHeader previous = null;
+        long verified = 0;
+        while (chain.hasNext()) {
+            batch.clear();
+            while (batch.size() < BATCH_SIZE && chain.hasNext()) {
+                batch.add(chain.next());
+            }
+            String[] problems = new String[batch.size()];
+            pool.invoke(new CheckBlocks(batch, difficulty, problems, 0, batch.size()));
+            for (int i = 0; i < batch.size(); i++) {
+                Block block = batch.get(i);
+                BlockHeader header = block.header();
+                String problem = problems[i] != null ? problems[i] : BlockHeader.checkLink(previous, header);
+                if (problem == null && ledger != null) {
+                    problem = replay(block);
+                }
+                if (problem != null) {
+                    return new Result(verified, block.blockNumber, problem);
+                }
+                previous = header;
+                verified++;
+            }
+        }
+        return new Result(verified, -1, null);
+    }
+
+    // Everything that can be checked from the block and the chain's difficulty
+    static String checkBlock(Block block, Difficulty difficulty) {
+        List<Transaction> fresh = new ArrayList<>(block.transactions.size());
+        for (Transaction txn : block.transactions) {
+            // Hash afresh rather than trusting a cached value
+            fresh.add(new Transaction(txn.from, txn.to, txn.amount, txn.incentive));
+        }
+        Hash256 merkleRoot = MerkleTree.of(fresh).root();
+        if (merkleRoot == null ? block.merkleRoot != null : !merkleRoot.equals(block.merkleRoot)) {
+            return "Merkle root does not match its transactions";
+        }
+        return block.header().checkProofOfWork(difficulty);
+    }
+
+    private String replay(Block block) {
+        if (stateTree == null) {
+            stateTree = StateTree.of(ledger);
+        }
+        for (Transaction txn : block.transactions) {
+            if (!ledger.debitIfSufficient(ledger.intern(txn.from), txn.amount)) {
+                return txn.from + " cannot afford " + txn;
+            }
+            ledger.credit(ledger.intern(txn.to), txn.amount);
+            stateTree.put(txn.from, ledger.balance(txn.from));
+            stateTree.put(txn.to, ledger.balance(txn.to));
+        }
+        ledger.credit(ledger.intern(block.selectedMiner.id), blockReward);
+        stateTree.put(block.selectedMiner.id, ledger.balance(block.selectedMiner.id));
+        if (block.stateRoot != null && !block.stateRoot.equals(stateTree.root())) {
+            return "state root does not match the replayed balances";
+        }
+        return null;
+    }
+
+    private static final class CheckBlocks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Block> blocks;
+        private final Difficulty difficulty;
+        private final String[] problems;
+        private final int from;
+        private final int to;
+
+        CheckBlocks(List<Block> blocks, Difficulty difficulty, String[] problems, int from, int to) {
+            this.blocks = blocks;
+            this.difficulty = difficulty;
+            this.problems = problems;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    problems[i] = checkBlock(blocks.get(i), difficulty);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new CheckBlocks(blocks, difficulty, problems, from, mid),
+                    new CheckBlocks(blocks, difficulty, problems, mid, to));
+        }
+    }
+
+    // Blocks in the order they are stored
+    static Iterator<Block> blocks(BlockStore store) {
+        Block tip = store.tip();
+        int first = store.firstNumber();
+        return new Iterator<Block>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+                return tip != null && next <= tip.blockNumber;
+            }
+
+            @Override
+            public Block next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return store.get(next++);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    // Parses the printed chain format. Printed blocks carry no parent hash or difficulty, so each
+    // block links to the previous one (the first to the genesis parent) and the configured
+    // difficulty is assumed.
+    static Iterator<Block> parse(BufferedReader in, Difficulty difficulty) {
+        return new Iterator<Block>() {
+            private Hash256 prevBlockHash = Hash256.ZERO;
+            private String line = readLine();
+
+            @Override
+            public boolean hasNext() {
+                return line != null && !line.isEmpty();
+            }
+
+            @Override
+            public Block next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int blockNumber = Integer.parseInt(line.trim());
+                Hash256 blockHash = Hash256.fromHex(readLine().trim());
+                List<Transaction> transactions = parseTransactions(readLine().trim());
+                String merkleLine = readLine().trim();
+                Hash256 merkleRoot = merkleLine.isEmpty() ? null : Hash256.fromHex(merkleLine);
+                String[] sealing = readLine().trim().split(" ");
+                Block block = new Block(blockNumber, prevBlockHash, transactions, merkleRoot, blockHash,
+                        Integer.parseInt(sealing[0]), difficulty, Miner.withId(sealing[1]));
+                prevBlockHash = blockHash;
+                line = readLine();
+                return block;
+            }
+
+            private String readLine() {
+                try {
+                    return in.readLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    // [["from", "to", amount, incentive], ...]
+    private static List<Transaction> parseTransactions(String text) {
+        List<Transaction> transactions = new ArrayList<>();
+        int i = 1;
+        while (i < text.length() - 1) {
+            int open = text.indexOf('[', i);
+            if (open < 0) {
+                break;
+            }
+            int close = text.indexOf(']', open);
+            String[] fields = text.substring(open + 1, close).split(", ");
+            transactions.add(new Transaction(unquote(fields[0]), unquote(fields[1]),
+                    Integer.parseInt(fields[2]), Integer.parseInt(fields[3])));
+            i = close + 1;
+        }
+        return transactions;
+    }
+
+    private static String unquote(String s) {
+        return s.substring(1, s.length() - 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java ChainVerifier <store directory | printed chain file> [original input file]");
+            System.exit(2);
+        }
+        AccountLedger ledger = null;
+        long blockReward = 0;
+        if (args.length > 1) {
+            // Only the starting balances and the block reward are needed from the original input
+            try (InputReader reader = InputReader.open(Paths.get(args[1]))) {
+                ledger = new AccountLedger();
+                int numAcc = reader.nextInt();
+                for (int i = 0; i < numAcc; i++) {
+                    ledger.set(ledger.intern(reader.nextToken()), reader.nextLong());
+                }
+                int numTxn = reader.nextInt();
+                boolean signed = System.getProperty("blockchain.sig.keys") != null;
+                reader.transactions(numTxn, signed).forEachRemaining(txn -> { });
+                blockReward = reader.nextLong();
+            }
+        }
+        Difficulty difficulty = Difficulty.fromConfig();
+        ChainVerifier verifier = new ChainVerifier(ForkJoinPool.commonPool(), difficulty, ledger, blockReward);
+        Path chain = Paths.get(args[0]);
+        Result result;
+        if (Files.isDirectory(chain)) {
+            try (BlockStore store = BlockStore.openReadOnly(chain)) {
+                if (ledger != null && store.tip() != null && store.tip().blockNumber != store.size()) {
+                    System.err.println("The store does not start at block 1, skipping the balance replay");
+                    verifier = new ChainVerifier(ForkJoinPool.commonPool(), difficulty, null, 0);
+                }
+                result = verifier.verify(blocks(store));
+            }
+        } else {
+            try (BufferedReader in = Files.newBufferedReader(chain, Charset.defaultCharset())) {
+                result = verifier.verify(parse(in, difficulty));
+            }
+        }
+        System.out.println(result);
+        if (!result.isValid()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,502 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Versioned compact records for blocks and transactions, encoded into and read from ByteBuffers.
+// Integers are unsigned LEB128 varints (a negative int takes five bytes), hashes are raw bytes, and a
+// block names each account once in a dictionary that its transactions refer to by index.
+//
+// Block record, version 2:
+//   u8      version
+//   varint  length of the rest of the record
+//   varint  block number
+//   u8      flags: 1 = has a Merkle root, 2 = has a state root
+//   32      previous block hash, then block hash, then the Merkle root and state root if flagged
+//   varint  nonce
+//   u16     difficulty
+//   varint  account count, then per account: varint UTF-8 length, UTF-8 bytes
+//   varint  miner id (account index)
+//   varint  transaction count, then per transaction: varint from, to (account indexes), amount,
+//           incentive, signature length (0 for none) and the signature bytes
+//
+// Version 1 block records, which carry no signatures, are still read.
+//
+// Transaction record, version 1:
+//   u8      version
+//   u8      flags: 1 = signed
+//   varint  UTF-8 length and bytes of the sender, then of the receiver
+//   varint  amount, incentive
+//   varint  signature length and bytes, if signed
+//
+// BlockView and TransactionView read a record in place, so a stored or received block can be
+// inspected without building its Transaction objects or copying its bytes. This is the format of
+// the BlockStore, gossip messages and the binary block sinks.
+final class CompactCodec {
+    static final int BLOCK_VERSION = 2;
+    static final int TRANSACTION_VERSION = 1;
+    private static final int HAS_MERKLE_ROOT = 1;
+    private static final int HAS_STATE_ROOT = 2;
+    private static final int SIGNED = 1;
+
+    private CompactCodec() {
+    }
+
+    // Block
+
+    static ByteBuffer encode(Block block) {
+        Dictionary dictionary = new Dictionary(block);
+        int body = bodySize(block, dictionary);
+        ByteBuffer out = ByteBuffer.allocate(1 + varintSize(body) + body);
+        write(block, dictionary, body, out);
+        return out.flip();
+    }
+
+    // Throws BufferOverflowException, having written part of the record, when out is too small
+    static void write(Block block, ByteBuffer out) {
+        Dictionary dictionary = new Dictionary(block);
+        write(block, dictionary, bodySize(block, dictionary), out);
+    }
+
+    static int encodedSize(Block block) {
+        int body = bodySize(block, new Dictionary(block));
+        return 1 + varintSize(body) + body;
+    }
+
+    private static void write(Block block, Dictionary dictionary, int bodySize, ByteBuffer out) {
+        out.put((byte) BLOCK_VERSION);
+        putVarint(out, bodySize);
+        putVarint(out, block.blockNumber);
+        out.put((byte) flags(block));
+        block.prevBlockHash.writeTo(out);
+        block.blockHash.writeTo(out);
+        if (block.merkleRoot != null) {
+            block.merkleRoot.writeTo(out);
+        }
+        if (block.stateRoot != null) {
+            block.stateRoot.writeTo(out);
+        }
+        putVarint(out, block.nonce);
+        out.putShort(block.difficulty.encode());
+        putVarint(out, dictionary.accounts.size());
+        for (byte[] account : dictionary.accounts) {
+            putVarint(out, account.length);
+            out.put(account);
+        }
+        putVarint(out, 0);
+        putVarint(out, block.transactions.size());
+        for (int i = 0; i < block.transactions.size(); i++) {
+            Transaction txn = block.transactions.get(i);
+            putVarint(out, dictionary.from[i]);
+            putVarint(out, dictionary.to[i]);
+            putVarint(out, txn.amount);
+            putVarint(out, txn.incentive);
+            if (txn.signature == null) {
+                putVarint(out, 0);
+            } else {
+                putVarint(out, txn.signature.length);
+                out.put(txn.signature);
+            }
+        }
+    }
+
+    private static int bodySize(Block block, Dictionary dictionary) {
+        int size = varintSize(block.blockNumber) + 1 + 2 * Hash256.SIZE
+                + (block.merkleRoot != null ? Hash256.SIZE : 0)
+                + (block.stateRoot != null ? Hash256.SIZE : 0)
+                + varintSize(block.nonce) + 2
+                + varintSize(dictionary.accounts.size());
+        for (byte[] account : dictionary.accounts) {
+            size += varintSize(account.length) + account.length;
+        }
+        size += 1 + varintSize(block.transactions.size());
+        for (int i = 0; i < block.transactions.size(); i++) {
+            Transaction txn = block.transactions.get(i);
+            int signature = txn.signature == null ? 0 : txn.signature.length;
+            size += varintSize(dictionary.from[i]) + varintSize(dictionary.to[i])
+                    + varintSize(txn.amount) + varintSize(txn.incentive) + varintSize(signature) + signature;
+        }
+        return size;
+    }
+
+    private static int flags(Block block) {
+        return (block.merkleRoot != null ? HAS_MERKLE_ROOT : 0) | (block.stateRoot != null ? HAS_STATE_ROOT : 0);
+    }
+
+    // Reads the record at the buffer's position and moves the position past it
+    static Block read(ByteBuffer in) {
+        BlockView view = new BlockView().wrap(in);
+        Block block = view.toBlock();
+        in.position(in.position() + view.recordLength());
+        return block;
+    }
+
+    // Account ids in order of first use, so the miner is always index 0, and each transaction's indexes
+    private static final class Dictionary {
+        final List<byte[]> accounts = new ArrayList<>();
+        final int[] from;
+        final int[] to;
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        Dictionary(Block block) {
+            int n = block.transactions.size();
+            from = new int[n];
+            to = new int[n];
+            add(block.selectedMiner.id);
+            for (int i = 0; i < n; i++) {
+                Transaction txn = block.transactions.get(i);
+                from[i] = add(txn.from);
+                to[i] = add(txn.to);
+            }
+        }
+
+        private int add(String id) {
+            Integer index = indexes.putIfAbsent(id, accounts.size());
+            if (index != null) {
+                return index;
+            }
+            accounts.add(id.getBytes(StandardCharsets.UTF_8));
+            return accounts.size() - 1;
+        }
+    }
+
+    // Flyweight over a block record. wrap() reads the fixed fields and locates the dictionary;
+    // hashes, account ids and transactions are only decoded when asked for. One view can be
+    // re-wrapped over record after record without allocating once its offset table has grown.
+    static final class BlockView {
+        private ByteBuffer buffer;
+        private int version;
+        private int start;
+        private int end;
+        private int blockNumber;
+        private int flags;
+        private int hashes;
+        private int nonce;
+        private short difficulty;
+        private int accountCount;
+        private int[] accountOffsets = new int[16];
+        private int miner;
+        private int transactionCount;
+        private int transactionsStart;
+        private final TransactionView cursor = new TransactionView(this);
+        private int position;
+
+        // Wraps the record at the buffer's position, without moving it
+        BlockView wrap(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.start = buffer.position();
+            version = buffer.get(start) & 0xff;
+            if (version != 1 && version != BLOCK_VERSION) {
+                throw new IllegalArgumentException("Unsupported compact block version " + version);
+            }
+            position = start + 1;
+            end = buffer.limit();
+            int length = readVarint();
+            end = position + length;
+            if (end > buffer.limit()) {
+                throw new BufferUnderflowException();
+            }
+            blockNumber = readVarint();
+            flags = buffer.get(position++) & 0xff;
+            hashes = position;
+            position += Hash256.SIZE * (2 + Integer.bitCount(flags & (HAS_MERKLE_ROOT | HAS_STATE_ROOT)));
+            nonce = readVarint();
+            difficulty = buffer.getShort(position);
+            position += 2;
+            accountCount = readVarint();
+            if (accountOffsets.length < accountCount) {
+                accountOffsets = new int[Math.max(accountCount, accountOffsets.length * 2)];
+            }
+            for (int i = 0; i < accountCount; i++) {
+                accountOffsets[i] = position;
+                int idLength = readVarint();
+                position += idLength;
+            }
+            miner = readVarint();
+            transactionCount = readVarint();
+            transactionsStart = position;
+            return this;
+        }
+
+        int recordLength() {
+            return end - start;
+        }
+
+        int blockNumber() {
+            return blockNumber;
+        }
+
+        Hash256 prevBlockHash() {
+            return hashAt(hashes);
+        }
+
+        Hash256 blockHash() {
+            return hashAt(hashes + Hash256.SIZE);
+        }
+
+        // Null for a block without transactions
+        Hash256 merkleRoot() {
+            return (flags & HAS_MERKLE_ROOT) != 0 ? hashAt(hashes + 2 * Hash256.SIZE) : null;
+        }
+
+        Hash256 stateRoot() {
+            if ((flags & HAS_STATE_ROOT) == 0) {
+                return null;
+            }
+            int merkle = (flags & HAS_MERKLE_ROOT) != 0 ? Hash256.SIZE : 0;
+            return hashAt(hashes + 2 * Hash256.SIZE + merkle);
+        }
+
+        int nonce() {
+            return nonce;
+        }
+
+        Difficulty difficulty() {
+            return Difficulty.decode(difficulty);
+        }
+
+        int accountCount() {
+            return accountCount;
+        }
+
+        String account(int index) {
+            if (index < 0 || index >= accountCount) {
+                throw new IndexOutOfBoundsException("No account " + index + " in a dictionary of " + accountCount);
+            }
+            position = accountOffsets[index];
+            int length = readVarint();
+            byte[] bytes = new byte[length];
+            buffer.get(position, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Dictionary index of the account, or -1 if the block does not mention it; compares the UTF-8 in place
+        int indexOf(String id) {
+            byte[] wanted = id.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < accountCount; i++) {
+                position = accountOffsets[i];
+                if (readVarint() == wanted.length && matches(position, wanted)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean matches(int offset, byte[] wanted) {
+            for (int i = 0; i < wanted.length; i++) {
+                if (buffer.get(offset + i) != wanted[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int miner() {
+            return miner;
+        }
+
+        int transactionCount() {
+            return transactionCount;
+        }
+
+        // The view's single cursor, rewound to the first transaction
+        TransactionView transactions() {
+            cursor.rewind(transactionsStart);
+            return cursor;
+        }
+
+        Block toBlock() {
+            String[] ids = new String[accountCount];
+            for (int i = 0; i < accountCount; i++) {
+                ids[i] = account(i);
+            }
+            List<Transaction> transactions = new ArrayList<>(transactionCount);
+            TransactionView txn = transactions();
+            while (txn.next()) {
+                transactions.add(new Transaction(ids[txn.from()], ids[txn.to()], txn.amount(), txn.incentive(), txn.signature()));
+            }
+            Block block = new Block(blockNumber, prevBlockHash(), transactions, merkleRoot(), blockHash(),
+                    nonce, difficulty(), Miner.withId(ids[miner]));
+            block.stateRoot = stateRoot();
+            return block;
+        }
+
+        private Hash256 hashAt(int offset) {
+            byte[] bytes = new byte[Hash256.SIZE];
+            buffer.get(offset, bytes);
+            return Hash256.wrap(bytes);
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (position >= end) {
+                    throw new BufferUnderflowException();
+                }
+                byte b = buffer.get(position++);
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+                if (shift == 28) {
+                    throw new IllegalArgumentException("Varint longer than 5 bytes at offset " + (position - 1));
+                }
+            }
+        }
+    }
+
+    // Cursor over a block's transactions, with the accounts as dictionary indexes
+    static final class TransactionView {
+        private final BlockView block;
+        private int position; // kept apart from the view's, which account lookups move
+        private int remaining;
+        private int from, to, amount, incentive;
+        private int signatureOffset;
+        private int signatureLength;
+
+        private TransactionView(BlockView block) {
+            this.block = block;
+        }
+
+        private void rewind(int offset) {
+            position = offset;
+            remaining = block.transactionCount;
+        }
+
+        boolean next() {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            block.position = position;
+            from = block.readVarint();
+            to = block.readVarint();
+            amount = block.readVarint();
+            incentive = block.readVarint();
+            signatureLength = block.version == 1 ? 0 : block.readVarint();
+            signatureOffset = block.position;
+            if (signatureOffset + signatureLength > block.end) {
+                throw new BufferUnderflowException();
+            }
+            position = signatureOffset + signatureLength;
+            return true;
+        }
+
+        int from() {
+            return from;
+        }
+
+        int to() {
+            return to;
+        }
+
+        int amount() {
+            return amount;
+        }
+
+        int incentive() {
+            return incentive;
+        }
+
+        // A copy of the sender's signature, or null for an unsigned transaction
+        byte[] signature() {
+            if (signatureLength == 0) {
+                return null;
+            }
+            byte[] signature = new byte[signatureLength];
+            block.buffer.get(signatureOffset, signature);
+            return signature;
+        }
+    }
+
+    // Transaction
+
+    static void write(Transaction txn, ByteBuffer out) {
+        out.put((byte) TRANSACTION_VERSION);
+        out.put((byte) (txn.signature != null ? SIGNED : 0));
+        putString(out, txn.from);
+        putString(out, txn.to);
+        putVarint(out, txn.amount);
+        putVarint(out, txn.incentive);
+        if (txn.signature != null) {
+            putVarint(out, txn.signature.length);
+            out.put(txn.signature);
+        }
+    }
+
+    static int encodedSize(Transaction txn) {
+        int from = utf8Length(txn.from);
+        int to = utf8Length(txn.to);
+        int size = 2 + varintSize(from) + from + varintSize(to) + to + varintSize(txn.amount) + varintSize(txn.incentive);
+        if (txn.signature != null) {
+            size += varintSize(txn.signature.length) + txn.signature.length;
+        }
+        return size;
+    }
+
+    static Transaction readTransaction(ByteBuffer in) {
+        int version = in.get() & 0xff;
+        if (version != TRANSACTION_VERSION) {
+            throw new IllegalArgumentException("Unsupported compact transaction version " + version);
+        }
+        int flags = in.get();
+        String from = getString(in);
+        String to = getString(in);
+        int amount = getVarint(in);
+        int incentive = getVarint(in);
+        byte[] signature = null;
+        if ((flags & SIGNED) != 0) {
+            signature = new byte[getVarint(in)];
+            in.get(signature);
+        }
+        return new Transaction(from, to, amount, incentive, signature);
+    }
+
+    // Varints
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            if (shift == 28) {
+                throw new IllegalArgumentException("Varint longer than 5 bytes");
+            }
+        }
+    }
+
+    static int varintSize(int value) {
+        // 1 for 0..127, up to 5 for a negative int
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    private static void putString(ByteBuffer out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[getVarint(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int utf8Length(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -0,0 +1,81 @@
+// Proof-of-work target, checked directly on the raw digest bytes: the digest must start
+// (leading) or end (trailing) with the given number of zero bits. The original rule, a hex
+// hash ending in "0", is trailing:4.
+final class Difficulty {
+    static final Difficulty DEFAULT = trailingZeroBits(4);
+    static final int MAX_BITS = Hash256.SIZE * 8;
+
+    final boolean leading;
+    final int bits;
+
+    private Difficulty(boolean leading, int bits) {
+        if (bits < 0 || bits > MAX_BITS) {
+            throw new IllegalArgumentException("Difficulty must be between 0 and " + MAX_BITS + " bits: " + bits);
+        }
+        this.leading = leading;
+        this.bits = bits;
+    }
+
+    static Difficulty leadingZeroBits(int bits) {
+        return new Difficulty(true, bits);
+    }
+
+    static Difficulty trailingZeroBits(int bits) {
+        return new Difficulty(false, bits);
+    }
+
+    // Parses "leading:<bits>" or "trailing:<bits>"
+    static Difficulty parse(String spec) {
+        int colon = spec.indexOf(':');
+        String kind = colon < 0 ? "" : spec.substring(0, colon);
+        if (!kind.equals("leading") && !kind.equals("trailing")) {
+            throw new IllegalArgumentException("Expected leading:<bits> or trailing:<bits> but got " + spec);
+        }
+        return new Difficulty(kind.equals("leading"), Integer.parseInt(spec.substring(colon + 1)));
+    }
+
+    static Difficulty fromConfig() {
+        String spec = System.getProperty("blockchain.pow.difficulty");
+        return spec == null ? DEFAULT : parse(spec);
+    }
+
+    boolean isMetBy(byte[] digest) {
+        int fullBytes = bits >>> 3;
+        int remainder = bits & 7;
+        if (leading) {
+            for (int i = 0; i < fullBytes; i++) {
+                if (digest[i] != 0) return false;
+            }
+            return remainder == 0 || (digest[fullBytes] & (0xff00 >>> remainder) & 0xff) == 0;
+        }
+        int last = Hash256.SIZE - 1;
+        for (int i = 0; i < fullBytes; i++) {
+            if (digest[last - i] != 0) return false;
+        }
+        return remainder == 0 || (digest[last - fullBytes] & ((1 << remainder) - 1)) == 0;
+    }
+
+    // Packs the target into two bytes for storage: the top bit marks a leading-zero target
+    short encode() {
+        return (short) ((leading ? 0x8000 : 0) | bits);
+    }
+
+    static Difficulty decode(short encoded) {
+        return new Difficulty((encoded & 0x8000) != 0, encoded & 0x7fff);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Difficulty && ((Difficulty) o).leading == leading && ((Difficulty) o).bits == bits;
+    }
+
+    @Override
+    public int hashCode() {
+        return encode();
+    }
+
+    @Override
+    public String toString() {
+        return (leading ? "leading:" : "trailing:") + bits;
+    }
+}
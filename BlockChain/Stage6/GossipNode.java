@@ -0,0 +1,167 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// A peer in the gossip network. New transactions and sealed blocks are flooded: a message is
+// checked, handed to the listener and forwarded to every other link the first time it is seen, and
+// dropped after that. How messages travel is up to the Link, see NioNetwork and InProcessNetwork.
+//
+// Transactions are known by Transaction.id() and blocks by their hash. A block is only relayed if
+// it declares the chain's difficulty and its Merkle root, hash and proof of work hold; with a
+// SignatureVerifier, a transaction only if it is signed by its sender. Invalid messages are not remembered, so a forged copy cannot shut out
+// the genuine one.
+//
+// Messages are [byte type][body], the body being a CompactCodec transaction or block record; both
+// carry the transactions' signatures.
+class GossipNode {
+    static final byte TRANSACTION = 1;
+    static final byte BLOCK = 2;
+    private static final int SEEN_CAPACITY = 1 << 16;
+
+    interface Link {
+        void send(byte[] message);
+    }
+
+    interface Listener {
+        void transaction(GossipNode node, Transaction txn);
+
+        void block(GossipNode node, Block block);
+    }
+
+    final int id;
+    private final Difficulty difficulty;
+    private final Listener listener;
+    private final SignatureVerifier signatures; // null when transactions are not signed
+    private final List<Link> links = new ArrayList<>();
+    // Keys of recently seen valid messages; the oldest are forgotten once the capacity is reached
+    private final Map<Hash256, Boolean> seen = new LinkedHashMap<Hash256, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Hash256, Boolean> eldest) {
+            return size() > SEEN_CAPACITY;
+        }
+    };
+    private long received;
+    private long duplicates;
+    private long malformed;
+    private long invalid;
+
+    GossipNode(int id, Difficulty difficulty, Listener listener) {
+        this(id, difficulty, listener, null);
+    }
+
+    GossipNode(int id, Difficulty difficulty, Listener listener, SignatureVerifier signatures) {
+        this.id = id;
+        this.difficulty = difficulty;
+        this.listener = listener;
+        this.signatures = signatures;
+    }
+
+    synchronized void connect(Link link) {
+        links.add(link);
+    }
+
+    synchronized int linkCount() {
+        return links.size();
+    }
+
+    synchronized void publish(Transaction txn) {
+        seen.put(txn.id(), Boolean.TRUE);
+        forward(encode(txn), null);
+    }
+
+    synchronized void publish(Block block) {
+        seen.put(block.blockHash, Boolean.TRUE);
+        forward(encode(block), null);
+    }
+
+    synchronized void receive(byte[] message, Link from) {
+        received++;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(message, 1, message.length - 1);
+            if (message[0] == TRANSACTION) {
+                Transaction txn = CompactCodec.readTransaction(in);
+                if (isNew(txn.id()) && remember(txn.id(), isValid(txn))) {
+                    listener.transaction(this, txn);
+                    forward(message, from);
+                }
+            } else if (message[0] == BLOCK) {
+                Block block = CompactCodec.read(in);
+                if (isNew(block.blockHash) && remember(block.blockHash, isValid(block))) {
+                    listener.block(this, block);
+                    forward(message, from);
+                }
+            } else {
+                malformed++;
+            }
+        } catch (RuntimeException e) {
+            // A peer's garbage must not take the node down
+            malformed++;
+        }
+    }
+
+    private boolean isNew(Hash256 key) {
+        if (seen.containsKey(key)) {
+            duplicates++;
+            return false;
+        }
+        return true;
+    }
+
+    // Only valid messages are remembered, so an invalid copy does not hide a valid one arriving later
+    private boolean remember(Hash256 key, boolean valid) {
+        if (!valid) {
+            invalid++;
+            return false;
+        }
+        seen.put(key, Boolean.TRUE);
+        return true;
+    }
+
+    private boolean isValid(Transaction txn) {
+        return signatures == null || signatures.verify(txn);
+    }
+
+    private boolean isValid(Block block) {
+        return ChainVerifier.checkBlock(block, difficulty) == null;
+    }
+
+    private void forward(byte[] message, Link from) {
+        for (Link link : links) {
+            if (link != from) {
+                link.send(message);
+            }
+        }
+    }
+
+    synchronized long received() {
+        return received;
+    }
+
+    synchronized long duplicates() {
+        return duplicates;
+    }
+
+    synchronized long malformed() {
+        return malformed;
+    }
+
+    synchronized long invalid() {
+        return invalid;
+    }
+
+    static byte[] encode(Transaction txn) {
+        ByteBuffer out = ByteBuffer.allocate(1 + CompactCodec.encodedSize(txn));
+        out.put(TRANSACTION);
+        CompactCodec.write(txn, out);
+        return out.array();
+    }
+
+    static byte[] encode(Block block) {
+        ByteBuffer out = ByteBuffer.allocate(1 + CompactCodec.encodedSize(block));
+        out.put(BLOCK);
+        CompactCodec.write(block, out);
+        return out.array();
+    }
+}
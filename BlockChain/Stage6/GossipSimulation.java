@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.function.LongSupplier;
+
+// Measures transaction and block propagation through a gossip network of growing size. Node 0
+// publishes a chain of generated blocks, keeping up to a window of them in flight; before each
+// block, its signed transactions are published from random nodes. Every node checks signatures,
+// Merkle roots and proof of work before relaying. For each message the time until every other node
+// has it is recorded, and throughput is blocks over the time until the last one arrived everywhere.
+//
+//   java GossipSimulation [inprocess|nio] [node counts, e.g. 4,16,64] [blocks] [degree] [hop millis] [blocks in flight]
+//
+// inprocess runs on the virtual clock of InProcessNetwork with the given hop latency; nio runs real
+// loopback TCP, where the hop latency argument is ignored. Blocks are mined at, and checked
+// against, -Dblockchain.pow.difficulty.
+class GossipSimulation {
+    private static final long SEED = 42;
+    private static final int ACCOUNTS = 100;
+    private static final long STALL_MILLIS = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "inprocess";
+        int[] nodeCounts = args.length > 1
+                ? Arrays.stream(args[1].split(",")).mapToInt(Integer::parseInt).toArray()
+                : new int[] {4, 16, 64};
+        int blocks = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int degree = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        long hopNanos = TimeUnit.MILLISECONDS.toNanos(args.length > 4 ? Long.parseLong(args[4]) : 50);
+        int window = args.length > 5 ? Integer.parseInt(args[5]) : 8;
+        if (!transport.equals("inprocess") && !transport.equals("nio")) {
+            throw new IllegalArgumentException("Unknown transport " + transport + ", expected inprocess or nio");
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("At least one block must be in flight: " + window);
+        }
+
+        AccountKeys keys = new AccountKeys();
+        Difficulty difficulty = Difficulty.fromConfig();
+        List<Block> chain = generateChain(blocks, keys, difficulty);
+        System.out.println("transport  nodes  links  blocks  in flight  block mean ms  block max ms  txn mean ms  blocks/s  messages/block");
+        for (int nodes : nodeCounts) {
+            Result result = transport.equals("nio")
+                    ? runNio(chain, nodes, degree, window, keys, difficulty)
+                    : runInProcess(chain, nodes, degree, hopNanos, window, keys, difficulty);
+            System.out.printf("%-9s  %5d  %5d  %6d  %9d  %13.2f  %12.2f  %11.2f  %8.1f  %14.1f%n", transport, nodes, result.links,
+                    chain.size(), window, result.blocks.meanNanos() / 1e6, result.blocks.maxNanos / 1e6,
+                    result.transactions.meanNanos() / 1e6, result.blocksPerSecond(), (double) result.messages / chain.size());
+        }
+    }
+
+    private static Result runInProcess(List<Block> chain, int nodes, int degree, long hopNanos, int window, AccountKeys keys,
+                                       Difficulty difficulty) {
+        InProcessNetwork network = new InProcessNetwork(hopNanos, hopNanos / 5, SEED);
+        Propagation propagation = new Propagation(network::now);
+        GossipNode[] peers = nodes(nodes, propagation, keys, difficulty);
+        int[][] edges = topology(nodes, degree);
+        for (int[] edge : edges) {
+            network.connect(peers[edge[0]], peers[edge[1]]);
+        }
+        // Messages are delivered one at a time until something new has reached every node
+        IntPredicate awaitProgress = completed -> {
+            while (propagation.completed() == completed) {
+                if (!network.deliverNext()) {
+                    return false;
+                }
+            }
+            return true;
+        };
+        Result result = publish(chain, peers, propagation, window, awaitProgress, edges.length);
+        result.messages = network.messages();
+        return result;
+    }
+
+    private static Result runNio(List<Block> chain, int nodes, int degree, int window, AccountKeys keys, Difficulty difficulty)
+            throws IOException, InterruptedException {
+        Propagation propagation = new Propagation(System::nanoTime);
+        GossipNode[] peers = nodes(nodes, propagation, keys, difficulty);
+        int[][] edges = topology(nodes, degree);
+        try (NioNetwork network = new NioNetwork()) {
+            InetSocketAddress[] addresses = new InetSocketAddress[nodes];
+            for (int i = 0; i < nodes; i++) {
+                addresses[i] = network.listen(peers[i]);
+            }
+            for (int[] edge : edges) {
+                network.connect(peers[edge[0]], addresses[edge[1]]);
+            }
+            // Wait for the accepting ends, or early messages would miss links
+            while (network.connections() < 2 * edges.length) {
+                Thread.sleep(1);
+            }
+            Result result = publish(chain, peers, propagation, window, propagation::awaitCompletion, edges.length);
+            result.messages = network.messages();
+            return result;
+        }
+    }
+
+    // Publishes the chain from node 0 with at most window blocks not yet everywhere, each block's
+    // transactions going out first from random nodes. awaitProgress waits, given the number of
+    // completed messages, until another one completes, and returns false if none ever will.
+    private static Result publish(List<Block> chain, GossipNode[] peers, Propagation propagation, int window,
+                                  IntPredicate awaitProgress, int links) {
+        Random origins = new Random(SEED);
+        int total = 0;
+        for (Block block : chain) {
+            total += block.transactions.size() + 1;
+        }
+        long start = propagation.clock.getAsLong();
+        int next = 0;
+        while (propagation.completed() < total) {
+            while (next < chain.size() && next - propagation.blocksCompleted() < window) {
+                Block block = chain.get(next++);
+                for (Transaction txn : block.transactions) {
+                    propagation.expect(txn.id(), peers.length - 1, false);
+                    peers[origins.nextInt(peers.length)].publish(txn);
+                }
+                propagation.expect(block.blockHash, peers.length - 1, true);
+                peers[0].publish(block);
+            }
+            int completed = propagation.completed();
+            if (completed < total && !awaitProgress.test(completed)) {
+                throw new IllegalStateException("Gossip stalled with " + (total - completed) + " messages not everywhere");
+            }
+        }
+        Result result = new Result(links, propagation.blocks, propagation.transactions);
+        result.elapsedNanos = propagation.lastArrival - start;
+        return result;
+    }
+
+    private static GossipNode[] nodes(int count, GossipNode.Listener listener, AccountKeys keys, Difficulty difficulty) {
+        GossipNode[] nodes = new GossipNode[count];
+        for (int i = 0; i < count; i++) {
+            // Each node keeps its own cache, as separate processes would
+            nodes[i] = new GossipNode(i, difficulty, listener, new SignatureVerifier(keys, ForkJoinPool.commonPool(), 1 << 16));
+        }
+        return nodes;
+    }
+
+    // A ring, so the network is connected, plus seeded random links until every node has the degree
+    private static int[][] topology(int nodes, int degree) {
+        Random random = new Random(SEED);
+        boolean[][] linked = new boolean[nodes][nodes];
+        int[] links = new int[nodes];
+        List<int[]> edges = new ArrayList<>();
+        for (int i = 0; i < nodes && nodes > 1; i++) {
+            int j = (i + 1) % nodes;
+            if (!linked[i][j]) {
+                addEdge(edges, linked, links, i, j);
+            }
+        }
+        for (int i = 0; i < nodes; i++) {
+            for (int attempt = 0; links[i] < Math.min(degree, nodes - 1) && attempt < 16 * nodes; attempt++) {
+                int j = random.nextInt(nodes);
+                if (j != i && !linked[i][j]) {
+                    addEdge(edges, linked, links, i, j);
+                }
+            }
+        }
+        return edges.toArray(new int[0][]);
+    }
+
+    private static void addEdge(List<int[]> edges, boolean[][] linked, int[] links, int i, int j) {
+        linked[i][j] = linked[j][i] = true;
+        links[i]++;
+        links[j]++;
+        edges.add(new int[] {i, j});
+    }
+
+    // Blocks of four distinct transactions between ACCOUNTS accounts, each signed by its sender's key
+    // in keys, mined at the difficulty every node expects
+    private static List<Block> generateChain(int count, AccountKeys keys, Difficulty difficulty) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        Map<String, PrivateKey> privateKeys = new HashMap<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            KeyPair pair = generator.generateKeyPair();
+            privateKeys.put("acc" + i, pair.getPrivate());
+            keys.register("acc" + i, pair.getPublic());
+        }
+        Random random = new Random(SEED);
+        Set<Hash256> ids = new HashSet<>();
+        List<Block> chain = new ArrayList<>(count);
+        Hash256 prevBlockHash = Hash256.ZERO;
+        for (int number = 1; number <= count; number++) {
+            List<Transaction> transactions = new ArrayList<>();
+            while (transactions.size() < 4) {
+                Transaction txn = new Transaction("acc" + random.nextInt(ACCOUNTS), "acc" + random.nextInt(ACCOUNTS),
+                        1 + random.nextInt(200), random.nextInt(10));
+                // A repeat would have the same id, and gossip would take it for a duplicate
+                if (ids.add(txn.id())) {
+                    transactions.add(new Transaction(txn.from, txn.to, txn.amount, txn.incentive,
+                            SignatureVerifier.sign(txn, privateKeys.get(txn.from))));
+                }
+            }
+            Block block = new Block(number, prevBlockHash, transactions, Miner.withId("M" + random.nextInt(10)), difficulty);
+            chain.add(block);
+            prevBlockHash = block.blockHash;
+        }
+        return chain;
+    }
+
+    // Counts the arrivals of each expected message until every node but its origin has it
+    private static final class Propagation implements GossipNode.Listener {
+        final LongSupplier clock;
+        final Latencies blocks = new Latencies();
+        final Latencies transactions = new Latencies();
+        private final Map<Hash256, Pending> pending = new HashMap<>();
+        volatile long lastArrival;
+
+        Propagation(LongSupplier clock) {
+            this.clock = clock;
+        }
+
+        synchronized void expect(Hash256 key, int arrivals, boolean block) {
+            pending.put(key, new Pending(clock.getAsLong(), arrivals, block ? blocks : transactions));
+        }
+
+        synchronized int blocksCompleted() {
+            return blocks.count;
+        }
+
+        synchronized int completed() {
+            return blocks.count + transactions.count;
+        }
+
+        // Waits until more than completed messages have reached every node; false if that stalls
+        synchronized boolean awaitCompletion(int completed) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS);
+            try {
+                while (completed() == completed) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void transaction(GossipNode node, Transaction txn) {
+            arrived(txn.id());
+        }
+
+        @Override
+        public void block(GossipNode node, Block block) {
+            arrived(block.blockHash);
+        }
+
+        private synchronized void arrived(Hash256 key) {
+            Pending message = pending.get(key);
+            if (message == null || --message.remaining > 0) {
+                return;
+            }
+            pending.remove(key);
+            lastArrival = clock.getAsLong();
+            message.latencies.record(lastArrival - message.published);
+            notifyAll();
+        }
+    }
+
+    private static final class Pending {
+        final long published;
+        final Latencies latencies;
+        int remaining;
+
+        Pending(long published, int remaining, Latencies latencies) {
+            this.published = published;
+            this.remaining = remaining;
+            this.latencies = latencies;
+        }
+    }
+
+    private static final class Latencies {
+        long totalNanos;
+        long maxNanos;
+        int count;
+
+        void record(long nanos) {
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            count++;
+        }
+
+        double meanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+    }
+
+    private static final class Result {
+        final int links;
+        final Latencies blocks;
+        final Latencies transactions;
+        long elapsedNanos;
+        long messages;
+
+        Result(int links, Latencies blocks, Latencies transactions) {
+            this.links = links;
+            this.blocks = blocks;
+            this.transactions = transactions;
+        }
+
+        double blocksPerSecond() {
+            return elapsedNanos == 0 ? 0 : blocks.count * 1e9 / elapsedNanos;
+        }
+    }
+}
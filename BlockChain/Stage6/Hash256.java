@@ -0,0 +1,112 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Immutable 32-byte SHA3-256 digest. Hex text is only produced at the output edge.
+final class Hash256 {
+    static final int SIZE = 32;
+    static final Hash256 ZERO = new Hash256(new byte[SIZE]);
+
+    private final byte[] bytes;
+
+    private Hash256(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    // Takes ownership of the array, callers must not modify it afterwards
+    static Hash256 wrap(byte[] bytes) {
+        if (bytes.length != SIZE) {
+            throw new IllegalArgumentException("Expected " + SIZE + " bytes but got " + bytes.length);
+        }
+        return new Hash256(bytes);
+    }
+
+    static Hash256 copyOf(byte[] bytes, int offset) {
+        return new Hash256(Arrays.copyOfRange(bytes, offset, offset + SIZE));
+    }
+
+    static Hash256 read(ByteBuffer buffer) {
+        byte[] bytes = new byte[SIZE];
+        buffer.get(bytes);
+        return new Hash256(bytes);
+    }
+
+    static Hash256 fromHex(String hex) {
+        if (hex.length() != SIZE * 2) {
+            throw new IllegalArgumentException("Not a 256-bit hex hash: " + hex);
+        }
+        byte[] bytes = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Not a 256-bit hex hash: " + hex);
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return new Hash256(bytes);
+    }
+
+    byte byteAt(int index) {
+        return bytes[index];
+    }
+
+    void copyTo(byte[] dst, int offset) {
+        System.arraycopy(bytes, 0, dst, offset, SIZE);
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.put(bytes);
+    }
+
+    // Writes the 64 lowercase hex characters as ASCII bytes
+    void writeHex(byte[] dst, int offset) {
+        Hex.encode(bytes, dst, offset);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Hash256 && Arrays.equals(bytes, ((Hash256) o).bytes));
+    }
+
+    @Override
+    public int hashCode() {
+        // Digest bytes are already uniformly distributed
+        return (bytes[0] << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    @Override
+    public String toString() {
+        byte[] hex = new byte[SIZE * 2];
+        writeHex(hex, 0);
+        return new String(hex, StandardCharsets.ISO_8859_1);
+    }
+}
+
+final class Hex {
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+    private static final short[] TABLE = new short[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            TABLE[b] = (short) ((DIGITS[b >>> 4] << 8) | DIGITS[b & 0x0f]);
+        }
+    }
+
+    private Hex() {
+    }
+
+    static void encode(byte[] src, byte[] dst, int offset) {
+        for (int i = 0; i < src.length; i++) {
+            short pair = TABLE[src[i] & 0xff];
+            dst[offset++] = (byte) (pair >>> 8);
+            dst[offset++] = (byte) pair;
+        }
+    }
+
+    static String encode(byte[] src) {
+        byte[] hex = new byte[src.length * 2];
+        encode(src, hex, 0);
+        return new String(hex, StandardCharsets.ISO_8859_1);
+    }
+}
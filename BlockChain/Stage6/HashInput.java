@@ -0,0 +1,113 @@
+import java.nio.charset.StandardCharsets;
+
+// Reusable per-thread buffer for building hash preimages without intermediate Strings.
+// get() resets the thread's buffer, so a preimage must be digested before the next one is started.
+final class HashInput {
+    private static final ThreadLocal<HashInput> LOCAL = ThreadLocal.withInitial(HashInput::new);
+
+    private final byte[] digest = new byte[Hash256.SIZE];
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    private HashInput() {
+    }
+
+    static HashInput get() {
+        HashInput input = LOCAL.get();
+        input.length = 0;
+        return input;
+    }
+
+    HashInput append(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // Non-ASCII account ids take the slow path through the UTF-8 encoder
+                return appendBytes(s.getBytes(StandardCharsets.UTF_8));
+            }
+            buffer[length + i] = (byte) c;
+        }
+        length += n;
+        return this;
+    }
+
+    HashInput append(char c) {
+        ensure(1);
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    HashInput append(long value) {
+        ensure(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte t = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = t;
+        }
+        return this;
+    }
+
+    HashInput appendHex(Hash256 hash) {
+        ensure(Hash256.SIZE * 2);
+        hash.writeHex(buffer, length);
+        length += Hash256.SIZE * 2;
+        return this;
+    }
+
+    // Binary preimages: the 32 digest bytes and big-endian longs, as used by StateTree
+    HashInput appendRaw(Hash256 hash) {
+        ensure(Hash256.SIZE);
+        hash.copyTo(buffer, length);
+        length += Hash256.SIZE;
+        return this;
+    }
+
+    HashInput appendRaw(long value) {
+        ensure(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[length++] = (byte) (value >>> shift);
+        }
+        return this;
+    }
+
+    HashInput appendByte(int b) {
+        ensure(1);
+        buffer[length++] = (byte) b;
+        return this;
+    }
+
+    HashInput appendBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+        return this;
+    }
+
+    Hash256 digest() {
+        return CryptoUtil.sha3(buffer, 0, length);
+    }
+
+    // Returns this thread's reusable output array, only valid until the next digest on this thread
+    byte[] digestToScratch() {
+        CryptoUtil.sha3Into(buffer, 0, length, digest);
+        return digest;
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
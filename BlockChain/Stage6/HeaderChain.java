@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Headers-only view of a chain for light followers. Each header is checked against its parent, the
+// chain's difficulty and its proof of work as it arrives and kept as packed BlockHeader.SIZE bytes; bodies are
+// fetched from a BodySource only when asked for, and checked against the header's Merkle root.
+// Headers are synced straight from a store's headers.dat, so the segment files are only opened,
+// read-only, when a block is asked for.
+//
+//   java HeaderChain <store directory> [block number ...]
+//
+// The chain's difficulty is -Dblockchain.pow.difficulty, as for BlockChain.
+class HeaderChain {
+    interface BodySource {
+        // Returns null when the source does not have the block
+        List<Transaction> body(int blockNumber) throws IOException;
+    }
+
+    private final Difficulty difficulty;
+    private final BodySource bodies;
+    private final Map<Hash256, Integer> byHash = new HashMap<>();
+    private byte[] packed = new byte[BlockHeader.SIZE * 1024];
+    private int count;
+    private BlockHeader tip;
+
+    HeaderChain(Difficulty difficulty, BodySource bodies) {
+        this.difficulty = difficulty;
+        this.bodies = bodies;
+    }
+
+    void append(BlockHeader header) {
+        String problem = BlockHeader.checkLink(tip, header);
+        if (problem == null) {
+            problem = header.checkProofOfWork(difficulty);
+        }
+        if (problem != null) {
+            throw new IllegalArgumentException("Block " + header.blockNumber + " is invalid: " + problem);
+        }
+        if ((count + 1) * BlockHeader.SIZE > packed.length) {
+            packed = Arrays.copyOf(packed, packed.length * 2);
+        }
+        header.writeTo(ByteBuffer.wrap(packed, count * BlockHeader.SIZE, BlockHeader.SIZE));
+        byHash.put(header.blockHash, count);
+        count++;
+        tip = header;
+    }
+
+    // Follows every complete header in a store's headers.dat beyond our tip
+    int sync(Path headerFile) throws IOException {
+        try (FileChannel in = FileChannel.open(headerFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BlockHeader.SIZE);
+            long position = 0;
+            if (tip != null) {
+                if (!readHeader(in, buffer, 0)) {
+                    return 0;
+                }
+                int first = BlockHeader.read(buffer).blockNumber;
+                // A file that starts after our tip is left for append() to reject as unlinked
+                position = Math.max(0, (long) (tip.blockNumber + 1 - first) * BlockHeader.SIZE);
+            }
+            int synced = 0;
+            while (readHeader(in, buffer, position)) {
+                append(BlockHeader.read(buffer));
+                synced++;
+                position += BlockHeader.SIZE;
+            }
+            return synced;
+        }
+    }
+
+    // Reads the header at position into buffer, or returns false when the file has no complete one there
+    private static boolean readHeader(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    BlockHeader header(int blockNumber) {
+        int index = count == 0 ? -1 : blockNumber - firstNumber();
+        return index < 0 || index >= count ? null : headerAt(index);
+    }
+
+    BlockHeader header(Hash256 blockHash) {
+        Integer index = byHash.get(blockHash);
+        return index == null ? null : headerAt(index);
+    }
+
+    private BlockHeader headerAt(int index) {
+        return BlockHeader.read(ByteBuffer.wrap(packed, index * BlockHeader.SIZE, BlockHeader.SIZE));
+    }
+
+    // Fetches and checks the body of a block whose header is already held
+    Block block(int blockNumber) throws IOException {
+        BlockHeader header = header(blockNumber);
+        if (header == null) {
+            return null;
+        }
+        List<Transaction> transactions = bodies.body(blockNumber);
+        if (transactions == null) {
+            return null;
+        }
+        Hash256 merkleRoot = Block.computeMerkleRoot(transactions);
+        if (transactions.size() != header.transactionCount
+                || (merkleRoot == null ? header.merkleRoot != null : !merkleRoot.equals(header.merkleRoot))) {
+            throw new IllegalArgumentException("Body of block " + blockNumber + " does not match its header");
+        }
+        return header.withTransactions(transactions);
+    }
+
+    // Checks a balance proof against the state root in a header we hold
+    boolean verifyBalance(int blockNumber, StateTree.Proof proof) {
+        BlockHeader header = header(blockNumber);
+        return header != null && header.stateRoot != null && StateTree.verify(proof, header.stateRoot);
+    }
+
+    int firstNumber() {
+        return count == 0 ? -1 : tip.blockNumber - count + 1;
+    }
+
+    int size() {
+        return count;
+    }
+
+    BlockHeader tip() {
+        return tip;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java HeaderChain <store directory> [block number ...]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        // The bodies are only needed when blocks are asked for
+        try (BlockStore store = args.length > 1 ? BlockStore.openReadOnly(dir) : null) {
+            HeaderChain chain = new HeaderChain(Difficulty.fromConfig(), store == null ? blockNumber -> null : store::body);
+            chain.sync(dir.resolve("headers.dat"));
+            System.out.println("Synced " + chain.size() + " headers" + (chain.tip() == null ? "" : ", tip " + chain.tip().blockHash));
+            for (int i = 1; i < args.length; i++) {
+                Block block = chain.block(Integer.parseInt(args[i]));
+                System.out.println(block == null ? "No block " + args[i] : block);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.PriorityQueue;
+import java.util.Random;
+
+// Deterministic transport for tests and simulations. Messages are delivered on the caller's thread
+// by run(), in order of a virtual clock: each hop takes the link latency plus a seeded random
+// jitter, so the same seed always gives the same deliveries and timings.
+class InProcessNetwork {
+    private final PriorityQueue<Delivery> deliveries = new PriorityQueue<>();
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final Random random;
+    private long now;
+    private long sequence;
+    private long messages;
+
+    InProcessNetwork(long latencyNanos, long jitterNanos, long seed) {
+        this.latencyNanos = latencyNanos;
+        this.jitterNanos = jitterNanos;
+        this.random = new Random(seed);
+    }
+
+    void connect(GossipNode a, GossipNode b) {
+        Endpoint toB = new Endpoint(b);
+        Endpoint toA = new Endpoint(a);
+        // A message arriving over a link is tagged with the link back, so it is not echoed to its sender
+        toB.reverse = toA;
+        toA.reverse = toB;
+        a.connect(toB);
+        b.connect(toA);
+    }
+
+    // Delivers messages until none are in flight
+    void run() {
+        while (deliverNext()) {
+        }
+    }
+
+    // Delivers the earliest message in flight; returns false when there is none
+    boolean deliverNext() {
+        Delivery delivery = deliveries.poll();
+        if (delivery == null) {
+            return false;
+        }
+        now = delivery.time;
+        delivery.link.target.receive(delivery.message, delivery.link.reverse);
+        return true;
+    }
+
+    // Virtual time in nanoseconds
+    long now() {
+        return now;
+    }
+
+    long messages() {
+        return messages;
+    }
+
+    private final class Endpoint implements GossipNode.Link {
+        final GossipNode target;
+        Endpoint reverse;
+
+        Endpoint(GossipNode target) {
+            this.target = target;
+        }
+
+        @Override
+        public void send(byte[] message) {
+            long jitter = jitterNanos == 0 ? 0 : (long) (random.nextDouble() * jitterNanos);
+            deliveries.add(new Delivery(now + latencyNanos + jitter, sequence++, this, message));
+            messages++;
+        }
+    }
+
+    private static final class Delivery implements Comparable<Delivery> {
+        final long time;
+        final long sequence;
+        final Endpoint link;
+        final byte[] message;
+
+        Delivery(long time, long sequence, Endpoint link, byte[] message) {
+            this.time = time;
+            this.sequence = sequence;
+            this.link = link;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Delivery other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Whitespace-separated tokenizer that parses numbers straight from the input bytes and
+// interns account ids, so repeated ids never allocate a new String.
+abstract class InputReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TokenTable tokens = new TokenTable();
+    private byte[] token = new byte[64];
+    protected ByteBuffer buffer;
+
+    static InputReader of(InputStream in) {
+        return new ChannelReader(Channels.newChannel(in));
+    }
+
+    static InputReader open(Path file) throws IOException {
+        return new ChannelReader(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    static InputReader mapped(Path file) throws IOException {
+        return new MappedReader(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    // Makes more bytes available in buffer, returns false at end of input
+    protected abstract boolean refill() throws IOException;
+
+    private int read() {
+        try {
+            if (!buffer.hasRemaining() && !refill()) {
+                return -1;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.get() & 0xff;
+    }
+
+    private int skipWhitespace() {
+        int b = read();
+        while (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+            b = read();
+        }
+        if (b < 0) {
+            throw new NoSuchElementException("Unexpected end of input");
+        }
+        return b;
+    }
+
+    long nextLong() {
+        int b = skipWhitespace();
+        boolean negative = b == '-';
+        if (negative) {
+            b = read();
+        }
+        long value = 0;
+        int digits = 0;
+        while (b >= '0' && b <= '9') {
+            if (value > (Long.MAX_VALUE - (b - '0')) / 10) {
+                throw new NumberFormatException("Number out of range");
+            }
+            value = value * 10 + (b - '0');
+            digits++;
+            b = read();
+        }
+        if (digits == 0 || (b >= 0 && b > ' ')) {
+            throw new NumberFormatException("Expected a number in the input");
+        }
+        return negative ? -value : value;
+    }
+
+    int nextInt() {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Number out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    String nextToken() {
+        int b = skipWhitespace();
+        int length = 0;
+        int hash = 0;
+        while (b > ' ') {
+            if (length == token.length) {
+                token = Arrays.copyOf(token, length * 2);
+            }
+            token[length++] = (byte) b;
+            hash = 31 * hash + b;
+            b = read();
+        }
+        return tokens.intern(token, length, hash);
+    }
+
+    Transaction nextTransaction() {
+        String from = nextToken();
+        String to = nextToken();
+        int amount = nextInt();
+        int incentive = nextInt();
+        return new Transaction(from, to, amount, incentive);
+    }
+
+    // A transaction line followed by the sender's base64 signature
+    Transaction nextSignedTransaction() {
+        String from = nextToken();
+        String to = nextToken();
+        int amount = nextInt();
+        int incentive = nextInt();
+        return new Transaction(from, to, amount, incentive, nextBase64());
+    }
+
+    // Decoded straight from the token buffer; signatures are all distinct, so they are not interned
+    private byte[] nextBase64() {
+        int b = skipWhitespace();
+        int length = 0;
+        while (b > ' ') {
+            if (length == token.length) {
+                token = Arrays.copyOf(token, length * 2);
+            }
+            token[length++] = (byte) b;
+            b = read();
+        }
+        try {
+            return Base64.getDecoder().decode(Arrays.copyOf(token, length));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad signature in input: " + e.getMessage());
+        }
+    }
+
+    Miner nextMiner() {
+        String id = nextToken().toUpperCase(); // Ensure uppercase miner ID
+        int computationScore = nextInt();
+        int[] blockHashScoreArray = new int[8];
+        for (int j = 0; j < 8; j++) {
+            blockHashScoreArray[j] = nextInt();
+        }
+        return new Miner(id, computationScore, blockHashScoreArray);
+    }
+
+    // Streams the next count transactions, parsing each one only when it is requested
+    Iterator<Transaction> transactions(int count) {
+        return transactions(count, false);
+    }
+
+    Iterator<Transaction> transactions(int count, boolean signed) {
+        return new Iterator<Transaction>() {
+            private int remaining = count;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public Transaction next() {
+                if (remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                remaining--;
+                return signed ? nextSignedTransaction() : nextTransaction();
+            }
+        };
+    }
+
+    private static final class ChannelReader extends InputReader {
+        private final ReadableByteChannel channel;
+
+        ChannelReader(ReadableByteChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+        }
+
+        @Override
+        protected boolean refill() throws IOException {
+            buffer.clear();
+            int n = channel.read(buffer);
+            while (n == 0) {
+                n = channel.read(buffer);
+            }
+            buffer.flip();
+            return n > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Maps the file in windows so inputs larger than 2 GB can be read
+    private static final class MappedReader extends InputReader {
+        private static final long WINDOW_SIZE = 1L << 28;
+
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+
+        MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.buffer = ByteBuffer.allocate(0);
+        }
+
+        @Override
+        protected boolean refill() throws IOException {
+            if (position >= size) {
+                return false;
+            }
+            long length = Math.min(WINDOW_SIZE, size - position);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Open-addressing table from token bytes to the String created the first time they were seen
+    private static final class TokenTable {
+        private byte[][] keys = new byte[1024][];
+        private String[] values = new String[1024];
+        private int[] hashes = new int[1024];
+        private int size;
+
+        String intern(byte[] token, int length, int hash) {
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+            while (keys[slot] != null) {
+                if (hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, token, 0, length)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            String value = new String(token, 0, length, StandardCharsets.UTF_8);
+            keys[slot] = Arrays.copyOf(token, length);
+            values[slot] = value;
+            hashes[slot] = hash;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            return value;
+        }
+
+        private void grow() {
+            byte[][] oldKeys = keys;
+            String[] oldValues = values;
+            int[] oldHashes = hashes;
+            keys = new byte[oldKeys.length * 2][];
+            values = new String[oldKeys.length * 2];
+            hashes = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = mix(oldHashes[i]) & mask;
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                    hashes[slot] = oldHashes[i];
+                }
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Just enough JSON for the RPC server: writing the node's objects, and reading flat request objects
+// whose values are strings or numbers.
+final class Json {
+    private Json() {
+    }
+
+    static String quote(String s) {
+        StringBuilder out = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString();
+    }
+
+    static String transaction(Transaction txn) {
+        return "{\"hash\":\"" + txn.getTransactionHash() + "\",\"from\":" + quote(txn.from) + ",\"to\":" + quote(txn.to)
+                + ",\"amount\":" + txn.amount + ",\"incentive\":" + txn.incentive + "}";
+    }
+
+    static String block(Block block) {
+        StringBuilder out = new StringBuilder(256 + 128 * block.transactions.size());
+        out.append("{\"number\":").append(block.blockNumber)
+                .append(",\"hash\":\"").append(block.blockHash)
+                .append("\",\"prevHash\":\"").append(block.prevBlockHash)
+                .append("\",\"merkleRoot\":").append(block.merkleRoot == null ? "null" : "\"" + block.merkleRoot + "\"")
+                .append(",\"stateRoot\":").append(block.stateRoot == null ? "null" : "\"" + block.stateRoot + "\"")
+                .append(",\"nonce\":").append(block.nonce)
+                .append(",\"difficulty\":\"").append(block.difficulty)
+                .append("\",\"miner\":").append(quote(block.selectedMiner.id))
+                .append(",\"transactions\":[");
+        for (int i = 0; i < block.transactions.size(); i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(transaction(block.transactions.get(i)));
+        }
+        return out.append("]}").toString();
+    }
+
+    // Parses {"key": "value" | number, ...}; numbers are returned as their text
+    static Map<String, String> parseObject(String json) {
+        Parser parser = new Parser(json);
+        Map<String, String> fields = new LinkedHashMap<>();
+        parser.expect('{');
+        if (!parser.consume('}')) {
+            do {
+                String key = parser.string();
+                parser.expect(':');
+                fields.put(key, parser.peek() == '"' ? parser.string() : parser.number());
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.skipWhitespace();
+        if (parser.position < json.length()) {
+            throw new IllegalArgumentException("Unexpected content after the JSON object");
+        }
+        return fields;
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int position;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        char peek() {
+            skipWhitespace();
+            if (position == text.length()) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return text.charAt(position);
+        }
+
+        boolean consume(char c) {
+            if (peek() == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "' at offset " + position);
+            }
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                if (position == text.length()) {
+                    throw new IllegalArgumentException("Unterminated JSON string");
+                }
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (position == text.length()) {
+                    throw new IllegalArgumentException("Unterminated JSON string");
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Bad \\u escape in JSON string");
+                        }
+                        out.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default: out.append(escaped);
+                }
+            }
+        }
+
+        String number() {
+            skipWhitespace();
+            int start = position;
+            while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+                position++;
+            }
+            if (start == position) {
+                throw new IllegalArgumentException("Expected a string or number at offset " + start);
+            }
+            return text.substring(start, position);
+        }
+    }
+}
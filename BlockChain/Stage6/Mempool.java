@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// Concurrent pool of unconfirmed transactions, kept in block order: incentive descending, then
+// receiver account ascending, then arrival order. Transactions can be submitted while blocks are
+// being built, and a transaction (by Transaction.id()) is only ever accepted once.
+class Mempool {
+    static final Comparator<Transaction> PRIORITY = (a, b) -> {
+        if (b.incentive != a.incentive) return Integer.compare(b.incentive, a.incentive);
+        return a.to.compareTo(b.to);
+    };
+
+    private final ConcurrentSkipListSet<Entry> queue = new ConcurrentSkipListSet<>();
+    private final TransactionIndex index;
+    private final AtomicLong arrivals = new AtomicLong();
+
+    Mempool(TransactionIndex index) {
+        this.index = index;
+    }
+
+    // Returns false if a transaction with the same fields was submitted before
+    boolean submit(Transaction txn) {
+        if (!index.addPending(txn)) {
+            return false;
+        }
+        queue.add(new Entry(txn, arrivals.getAndIncrement()));
+        return true;
+    }
+
+    Transaction poll() {
+        Entry entry = queue.pollFirst();
+        return entry == null ? null : entry.txn;
+    }
+
+    // Removes up to count transactions in priority order
+    List<Transaction> poll(int count) {
+        List<Transaction> polled = new ArrayList<>(Math.min(count, 1024));
+        Transaction txn;
+        while (polled.size() < count && (txn = poll()) != null) {
+            polled.add(txn);
+        }
+        return polled;
+    }
+
+    // Removes transactions in priority order until count of them pass the check or the pool is empty.
+    // Transactions that fail the check are dropped, as they were when the whole list was sorted up front.
+    List<Transaction> take(int count, Predicate<Transaction> eligible) {
+        List<Transaction> taken = new ArrayList<>(count);
+        while (taken.size() < count) {
+            Transaction txn = poll();
+            if (txn == null) {
+                break;
+            }
+            if (eligible.test(txn)) {
+                taken.add(txn);
+            } else {
+                index.reject(txn);
+            }
+        }
+        return taken;
+    }
+
+    boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    int size() {
+        return queue.size();
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final Transaction txn;
+        final long arrival;
+
+        Entry(Transaction txn, long arrival) {
+            this.txn = txn;
+            this.arrival = arrival;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int order = PRIORITY.compare(txn, other.txn);
+            return order != 0 ? order : Long.compare(arrival, other.arrival);
+        }
+    }
+}
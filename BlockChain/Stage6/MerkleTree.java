@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+// Merkle tree that keeps every level, so appends only rehash the right-most path and
+// inclusion proofs come straight from the stored nodes. As in Block, a node without a
+// sibling is promoted to the next level unhashed. Large trees are built level by level
+// on the common fork-join pool.
+class MerkleTree {
+    private static final int PARALLEL_THRESHOLD = Integer.getInteger("blockchain.merkle.parallelThreshold", 4096);
+
+    private final List<List<Hash256>> levels = new ArrayList<>();
+
+    static MerkleTree of(List<Transaction> transactions) {
+        MerkleTree tree = new MerkleTree();
+        int n = transactions.size();
+        if (n >= PARALLEL_THRESHOLD) {
+            tree.buildParallel(fill(n, i -> transactions.get(i).getTransactionHash()));
+        } else {
+            List<Hash256> leaves = new ArrayList<>(n);
+            for (Transaction txn : transactions) {
+                leaves.add(txn.getTransactionHash());
+            }
+            tree.build(leaves);
+        }
+        return tree;
+    }
+
+    static Hash256 hashPair(Hash256 left, Hash256 right) {
+        return HashInput.get().appendHex(left).appendHex(right).digest();
+    }
+
+    private void build(List<Hash256> leaves) {
+        List<Hash256> level = leaves;
+        levels.add(level);
+        while (level.size() > 1) {
+            List<Hash256> parents = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i < level.size(); i += 2) {
+                parents.add(i + 1 < level.size() ? hashPair(level.get(i), level.get(i + 1)) : level.get(i));
+            }
+            levels.add(parents);
+            level = parents;
+        }
+    }
+
+    // Same levels as build(), with each level hashed by fork-join tasks until it drops below the threshold
+    private void buildParallel(Hash256[] leaves) {
+        Hash256[] level = leaves;
+        levels.add(new ArrayList<>(Arrays.asList(level)));
+        while (level.length > 1) {
+            Hash256[] children = level;
+            IntFunction<Hash256> parent = i -> 2 * i + 1 < children.length
+                    ? hashPair(children[2 * i], children[2 * i + 1]) : children[2 * i];
+            int n = (children.length + 1) / 2;
+            if (n >= PARALLEL_THRESHOLD) {
+                level = fill(n, parent);
+            } else {
+                level = new Hash256[n];
+                for (int i = 0; i < n; i++) {
+                    level[i] = parent.apply(i);
+                }
+            }
+            levels.add(new ArrayList<>(Arrays.asList(level)));
+        }
+    }
+
+    private static Hash256[] fill(int n, IntFunction<Hash256> node) {
+        Hash256[] out = new Hash256[n];
+        ForkJoinPool.commonPool().invoke(new Fill(out, node, 0, n));
+        return out;
+    }
+
+    private static final class Fill extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int LEAF_TASK = 512;
+
+        private final Hash256[] out;
+        private final IntFunction<Hash256> node;
+        private final int from;
+        private final int to;
+
+        Fill(Hash256[] out, IntFunction<Hash256> node, int from, int to) {
+            this.out = out;
+            this.node = node;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_TASK) {
+                for (int i = from; i < to; i++) {
+                    out[i] = node.apply(i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Fill(out, node, from, mid), new Fill(out, node, mid, to));
+        }
+    }
+
+    int size() {
+        return levels.isEmpty() ? 0 : levels.get(0).size();
+    }
+
+    Hash256 root() {
+        return size() == 0 ? null : levels.get(levels.size() - 1).get(0);
+    }
+
+    Hash256 leaf(int index) {
+        return levels.get(0).get(index);
+    }
+
+    void append(Transaction txn) {
+        append(txn.getTransactionHash());
+    }
+
+    void append(Hash256 leaf) {
+        if (levels.isEmpty()) {
+            levels.add(new ArrayList<>());
+        }
+        levels.get(0).add(leaf);
+        int index = levels.get(0).size() - 1;
+        for (int depth = 0; levels.get(depth).size() > 1; depth++) {
+            List<Hash256> level = levels.get(depth);
+            if (depth + 1 == levels.size()) {
+                levels.add(new ArrayList<>());
+            }
+            List<Hash256> parents = levels.get(depth + 1);
+            int parent = index / 2;
+            int left = parent * 2;
+            Hash256 node = left + 1 < level.size() ? hashPair(level.get(left), level.get(left + 1)) : level.get(left);
+            if (parent < parents.size()) {
+                parents.set(parent, node);
+            } else {
+                parents.add(node);
+            }
+            index = parent;
+        }
+    }
+
+    Proof proof(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("No leaf " + index + " in a tree of " + size());
+        }
+        List<Hash256> siblings = new ArrayList<>();
+        List<Boolean> siblingIsLeft = new ArrayList<>();
+        int position = index;
+        for (int depth = 0; depth < levels.size() - 1; depth++) {
+            List<Hash256> level = levels.get(depth);
+            if ((position & 1) == 1) {
+                siblings.add(level.get(position - 1));
+                siblingIsLeft.add(true);
+            } else if (position + 1 < level.size()) {
+                siblings.add(level.get(position + 1));
+                siblingIsLeft.add(false);
+            }
+            // A promoted node contributes no step
+            position /= 2;
+        }
+        boolean[] left = new boolean[siblingIsLeft.size()];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = siblingIsLeft.get(i);
+        }
+        return new Proof(index, siblings.toArray(new Hash256[0]), left);
+    }
+
+    static boolean verify(Hash256 leaf, Proof proof, Hash256 root) {
+        Hash256 node = leaf;
+        for (int i = 0; i < proof.siblings.length; i++) {
+            node = proof.siblingIsLeft[i] ? hashPair(proof.siblings[i], node) : hashPair(node, proof.siblings[i]);
+        }
+        return node.equals(root);
+    }
+
+    static final class Proof {
+        final int index;
+        final Hash256[] siblings;
+        final boolean[] siblingIsLeft;
+
+        Proof(int index, Hash256[] siblings, boolean[] siblingIsLeft) {
+            this.index = index;
+            this.siblings = siblings;
+            this.siblingIsLeft = siblingIsLeft;
+        }
+    }
+}
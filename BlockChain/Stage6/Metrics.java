@@ -0,0 +1,208 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Counters and latency histograms for the sealing pipeline, exported in the Prometheus text format.
+// Everything is switched off unless -Dblockchain.metrics=true; callers check ENABLED, a static final
+// constant, so a disabled build pays nothing beyond a folded branch.
+final class Metrics {
+    static final boolean ENABLED = Boolean.getBoolean("blockchain.metrics");
+
+    private static final List<Counter> COUNTERS = new ArrayList<>();
+    private static final List<Timer> TIMERS = new ArrayList<>();
+
+    static final Timer PARSE = timer("blockchain_parse_seconds", "Time spent reading the input, not counting mempool inserts and signature checks");
+    static final Timer SIGNATURES = timer("blockchain_signature_batch_seconds", "Time spent verifying a batch of transaction signatures");
+    static final Timer SORT = timer("blockchain_mempool_insert_seconds", "Time spent inserting transactions into the priority-ordered mempool");
+    static final Timer VALIDATION = timer("blockchain_validation_seconds", "Time spent checking and applying transactions to the ledger");
+    static final Timer MERKLE_ROOT = timer("blockchain_merkle_root_seconds", "Time spent computing block Merkle roots");
+    static final Timer NONCE = timer("blockchain_nonce_seconds", "Time spent searching for block nonces");
+    static final Timer SELECT_MINER = timer("blockchain_select_miner_seconds", "Time spent selecting the sealing miner");
+    static final Counter NONCE_ATTEMPTS = counter("blockchain_nonce_attempts_total", "Nonce candidates hashed");
+    static final Counter SIGNATURES_VERIFIED = counter("blockchain_signatures_verified_total", "Ed25519 signatures checked");
+    static final Counter SIGNATURE_CACHE_HITS = counter("blockchain_signature_cache_hits_total", "Transactions accepted from the verified-signature cache");
+    static final Counter BLOCKS = counter("blockchain_blocks_sealed_total", "Blocks sealed");
+    static final Counter TXNS_ACCEPTED = counter("blockchain_transactions_accepted_total", "Transactions included in blocks");
+    static final Counter TXNS_REJECTED = counter("blockchain_transactions_rejected_total", "Transactions dropped for insufficient balance");
+    static final Counter EXEC_INCARNATIONS = counter("blockchain_exec_incarnations_total", "Speculative transaction executions by the parallel executor");
+    static final Counter EXEC_REEXECUTIONS = counter("blockchain_exec_reexecutions_total", "Speculative executions repeated after a conflict");
+    static final Counter EXEC_COMMIT_RECHECKS = counter("blockchain_exec_commit_rechecks_total", "Transactions re-checked at commit against a balance changed by a block reward");
+
+    private Metrics() {
+    }
+
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    private static Counter counter(String name, String help) {
+        Counter counter = new Counter(name, help);
+        COUNTERS.add(counter);
+        return counter;
+    }
+
+    private static Timer timer(String name, String help) {
+        Timer timer = new Timer(name, help);
+        TIMERS.add(timer);
+        return timer;
+    }
+
+    static String prometheusText() {
+        StringBuilder sb = new StringBuilder();
+        for (Counter counter : COUNTERS) {
+            sb.append("# HELP ").append(counter.name).append(' ').append(counter.help).append('\n');
+            sb.append("# TYPE ").append(counter.name).append(" counter\n");
+            sb.append(counter.name).append(' ').append(counter.value.sum()).append('\n');
+        }
+        for (Timer timer : TIMERS) {
+            timer.appendTo(sb);
+        }
+        double nonceSeconds = NONCE.sumNanos.sum() / 1e9;
+        sb.append("# HELP blockchain_nonce_hashes_per_second Nonce attempts per second of nonce search time\n");
+        sb.append("# TYPE blockchain_nonce_hashes_per_second gauge\n");
+        sb.append("blockchain_nonce_hashes_per_second ")
+                .append(nonceSeconds == 0 ? 0 : NONCE_ATTEMPTS.value.sum() / nonceSeconds).append('\n');
+        return sb.toString();
+    }
+
+    static void write(Path file) throws IOException {
+        Files.write(file, prometheusText().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Serves the current snapshot at http://localhost:<port>/metrics until the server is stopped. Only
+    // the loopback interface is bound unless blockchain.metrics.address names another address.
+    static HttpServer serve(int port) throws IOException {
+        String address = System.getProperty("blockchain.metrics.address");
+        InetSocketAddress bind = address == null
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(address, port);
+        HttpServer server = HttpServer.create(bind, 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    static final class Counter {
+        final String name;
+        final String help;
+        final LongAdder value = new LongAdder();
+
+        Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        void add(long n) {
+            value.add(n);
+        }
+
+        void increment() {
+            value.increment();
+        }
+    }
+
+    // Histogram with bucket bounds 1us, 4us, 16us ... about 16.8s
+    static final class Timer {
+        private static final long[] BOUNDS_NANOS = new long[13];
+
+        static {
+            for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+                BOUNDS_NANOS[i] = 1000L << (2 * i);
+            }
+        }
+
+        final String name;
+        final String help;
+        final LongAdder count = new LongAdder();
+        final LongAdder sumNanos = new LongAdder();
+        private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+
+        Timer(String name, String help) {
+            this.name = name;
+            this.help = help;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        // Records the time since a Metrics.start() value
+        void record(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        void recordNanos(long nanos) {
+            int bucket = 0;
+            while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        void appendTo(StringBuilder sb) {
+            sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            sb.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS_NANOS.length; i++) {
+                cumulative += buckets[i].sum();
+                sb.append(name).append("_bucket{le=\"").append(BOUNDS_NANOS[i] / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets[BOUNDS_NANOS.length].sum();
+            sb.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_sum ").append(sumNanos.sum() / 1e9).append('\n');
+            sb.append(name).append("_count ").append(count.sum()).append('\n');
+        }
+    }
+}
+
+// Flight Recorder event committed for every sealed block
+@Name("blockchain.BlockSealed")
+@Label("Block Sealed")
+@Category("Blockchain")
+@Description("A block was built, mined and written out")
+class BlockSealedEvent extends Event {
+    @Label("Block Number")
+    int blockNumber;
+
+    @Label("Transactions")
+    int transactions;
+
+    @Label("Nonce")
+    int nonce;
+
+    @Label("Difficulty")
+    String difficulty;
+
+    @Label("Miner")
+    String miner;
+
+    @Label("Merkle Root Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long merkleNanos;
+
+    @Label("Nonce Search Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long nonceNanos;
+}
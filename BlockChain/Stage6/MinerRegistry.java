@@ -0,0 +1,100 @@
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Miners ranked per block slot (blockNumber % 8). A miner's sealing score for a slot only depends on
+// that slot, so each slot keeps its miners ordered by score and caches the winner: joins, leaves and
+// score changes cost O(log M) per slot and selection is O(1). Ties go to the miner registered first,
+// as with a stream max over the registration-ordered list.
+class MinerRegistry {
+    static final int SLOTS = 8;
+
+    private static final Comparator<Entry> RANKING = (a, b) -> {
+        if (a.score != b.score) return Integer.compare(b.score, a.score);
+        return Long.compare(a.registration, b.registration);
+    };
+
+    private final Map<Miner, Entry[]> entries = new IdentityHashMap<>();
+    private final TreeSet<Entry>[] slots;
+    private final Miner[] best = new Miner[SLOTS];
+    private long registrations;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    MinerRegistry() {
+        slots = new TreeSet[SLOTS];
+        for (int slot = 0; slot < SLOTS; slot++) {
+            slots[slot] = new TreeSet<>(RANKING);
+        }
+    }
+
+    synchronized void register(Miner miner) {
+        if (entries.containsKey(miner)) {
+            throw new IllegalArgumentException("Miner " + miner.id + " is already registered");
+        }
+        add(miner, registrations++);
+    }
+
+    synchronized void unregister(Miner miner) {
+        if (remove(miner) != null) {
+            refreshBest();
+        }
+    }
+
+    // Changes a miner's scores, keeping its registration order for tie-breaking
+    synchronized void update(Miner miner, int computationScore, int[] blockHashScoreArray) {
+        Entry[] old = remove(miner);
+        if (old == null) {
+            throw new IllegalArgumentException("Miner " + miner.id + " is not registered");
+        }
+        miner.computationScore = computationScore;
+        miner.blockHashScoreArray = blockHashScoreArray;
+        add(miner, old[0].registration);
+    }
+
+    synchronized Miner select(int blockNumber) {
+        return best[blockNumber % SLOTS];
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void add(Miner miner, long registration) {
+        Entry[] minerEntries = new Entry[SLOTS];
+        for (int slot = 0; slot < SLOTS; slot++) {
+            minerEntries[slot] = new Entry(miner, miner.getBlockSealingScore(slot), registration);
+            slots[slot].add(minerEntries[slot]);
+        }
+        entries.put(miner, minerEntries);
+        refreshBest();
+    }
+
+    private Entry[] remove(Miner miner) {
+        Entry[] minerEntries = entries.remove(miner);
+        if (minerEntries != null) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                slots[slot].remove(minerEntries[slot]);
+            }
+        }
+        return minerEntries;
+    }
+
+    private void refreshBest() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            best[slot] = slots[slot].isEmpty() ? null : slots[slot].first().miner;
+        }
+    }
+
+    private static final class Entry {
+        final Miner miner;
+        final int score;
+        final long registration;
+
+        Entry(Miner miner, int score, long registration) {
+            this.miner = miner;
+            this.score = score;
+            this.registration = registration;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Gossip transport over loopback TCP. One selector thread serves every node's server socket and
+// connections with non-blocking channels; messages are framed as [int length][message] and handed
+// to GossipNode.receive on that thread. Sends from any thread are queued per connection and
+// written by the selector thread as the socket accepts them.
+class NioNetwork implements Closeable {
+    private static final int MAX_MESSAGE = 16 << 20;
+
+    private final Selector selector;
+    private final Thread loop;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong messages = new AtomicLong();
+    private volatile boolean running = true;
+
+    NioNetwork() throws IOException {
+        selector = Selector.open();
+        loop = new Thread(this::run, "gossip-selector");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    // Accepts peers for the node on an ephemeral loopback port
+    InetSocketAddress listen(GossipNode node) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.configureBlocking(false);
+        onLoop(() -> server.register(selector, SelectionKey.OP_ACCEPT, node));
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    void connect(GossipNode node, InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection(node, channel);
+        onLoop(() -> connection.key = channel.register(selector, SelectionKey.OP_READ, connection));
+        node.connect(connection);
+        connections.incrementAndGet();
+    }
+
+    // Connection ends opened so far, counting both the connecting and the accepting side
+    int connections() {
+        return connections.get();
+    }
+
+    long messages() {
+        return messages.get();
+    }
+
+    private interface LoopTask {
+        void run() throws IOException;
+    }
+
+    // Channels are registered on the selector thread, so registration never races a select()
+    private void onLoop(LoopTask task) throws IOException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        tasks.add(() -> {
+            try {
+                task.run();
+                done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        });
+        selector.wakeup();
+        try {
+            done.join();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(key);
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                }
+                selector.selectedKeys().clear();
+                Connection connection;
+                while ((connection = pendingWrites.poll()) != null) {
+                    connection.flush();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Gossip selector stopped: " + e.getMessage());
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        Connection connection = new Connection((GossipNode) key.attachment(), channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connection.node.connect(connection);
+        connections.incrementAndGet();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private final class Connection implements GossipNode.Link {
+        final GossipNode node;
+        final SocketChannel channel;
+        final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(64 << 10);
+
+        Connection(GossipNode node, SocketChannel channel) {
+            this.node = node;
+            this.channel = channel;
+        }
+
+        @Override
+        public void send(byte[] message) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            ByteBuffer frame = ByteBuffer.allocate(4 + message.length);
+            frame.putInt(message.length).put(message).flip();
+            outbox.add(frame);
+            messages.incrementAndGet();
+            pendingWrites.add(this);
+            if (Thread.currentThread() != loop) {
+                selector.wakeup();
+            }
+        }
+
+        void read() throws IOException {
+            int n;
+            try {
+                n = channel.read(in);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length <= 0 || length > MAX_MESSAGE) {
+                    close();
+                    return;
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                byte[] message = new byte[length];
+                in.position(in.position() + 4);
+                in.get(message);
+                node.receive(message, this);
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                // A frame larger than the buffer
+                ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+                in.flip();
+                in = bigger.put(in);
+            }
+        }
+
+        void flush() throws IOException {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            ByteBuffer frame;
+            while ((frame = outbox.peek()) != null) {
+                try {
+                    channel.write(frame);
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                if (frame.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                outbox.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void close() throws IOException {
+            key.cancel();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,390 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Long-running node with an HTTP/JSON API. The input file gives the starting accounts, transactions,
+// block reward and miners; after that, transactions arrive over HTTP and a producer thread seals
+// blocks from the mempool every blockchain.rpc.blockMillis.
+//
+//   POST /transactions            {"from": "a", "to": "b", "amount": 10, "incentive": 1, "signature": "<base64>"}
+//   GET  /transactions/<id>       status: PENDING, CONFIRMED (with block and position) or REJECTED
+//   GET  /balances/<account>
+//   GET  /balances/<account>/proof  StateTree proof of the balance against the latest block's state root
+//   GET  /blocks/<number | hash | latest>
+//   GET  /blocks/subscribe?from=N server-sent events, one per sealed block after N (default: the tip)
+//
+//   java NodeServer input.txt [port]
+//
+// Requests run on virtual threads when the JDK has them (21 and later), otherwise on a cached
+// thread pool. Sealed blocks are kept in a BlockStore at blockchain.store.dir, or in a temporary
+// directory when that is not set. With -Dblockchain.sig.keys, submitted transactions need the
+// sender's signature and the input's transactions carry one, as for BlockChain. The API only
+// listens on the loopback interface unless blockchain.rpc.address names another address.
+class NodeServer {
+    private static final long BLOCK_MILLIS = Long.getLong("blockchain.rpc.blockMillis", 200);
+    private static final int BACKLOG = Integer.getInteger("blockchain.rpc.backlog", 16384);
+    private static final long SUBSCRIBE_POLL_SECONDS = 15;
+
+    private final AccountLedger ledger;
+    private final Mempool mempool;
+    private final TransactionIndex transactionIndex;
+    private final SignatureVerifier signatures; // null when transactions need no signature
+    private final BlockStore store;
+    private final BlockFeed feed;
+    private final BlockProducer producer;
+    // Held by the producer thread for a whole round of sealing, so shutdown does not close the
+    // store under it. Balance queries only take the producer's ledger lock, which is never held
+    // while mining or writing.
+    private final Object sealLock = new Object();
+    private volatile boolean running = true;
+    // The input's transactions are all in the mempool at startup, so the first round decides them
+    private long inputTransactions;
+
+    NodeServer(AccountLedger ledger, Mempool mempool, TransactionIndex transactionIndex, MinerRegistry miners,
+               long blockReward, BlockSink sink, BlockStore store, StateStore state, SignatureVerifier signatures) throws IOException {
+        this.ledger = ledger;
+        this.signatures = signatures;
+        this.mempool = mempool;
+        this.transactionIndex = transactionIndex;
+        this.store = store;
+        this.feed = new BlockFeed(sink, store.tip() == null ? 0 : store.tip().blockNumber);
+        this.producer = new BlockProducer(ledger, mempool, transactionIndex, miners, blockReward, feed, store, state);
+    }
+
+    HttpServer start(int port, ExecutorService executor) throws IOException {
+        Thread sealer = new Thread(this::produce, "block-producer");
+        sealer.setDaemon(true);
+        sealer.start();
+
+        // Response headers and body go out as separate writes, which Nagle's algorithm would hold back
+        // for the client's delayed ACK; the JDK server reads this once, when its first instance is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        String address = System.getProperty("blockchain.rpc.address");
+        InetSocketAddress bind = address == null
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(address, port);
+        HttpServer server = HttpServer.create(bind, BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/transactions", exchange -> handle(exchange, this::transactions));
+        server.createContext("/balances/", exchange -> handle(exchange, this::balance));
+        server.createContext("/blocks/subscribe", this::subscribe);
+        server.createContext("/blocks/", exchange -> handle(exchange, this::block));
+        server.start();
+        return server;
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    // Seals full blocks as they fill up, and whatever is left at the end of each interval
+    private void produce() {
+        while (running) {
+            try {
+                synchronized (sealLock) {
+                    producer.produceAvailable();
+                    producer.flush();
+                    if (inputTransactions > 0) {
+                        store.recordInputPosition(inputTransactions);
+                        inputTransactions = 0;
+                    }
+                }
+                Thread.sleep(BLOCK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Sealing failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private interface Handler {
+        Response handle(HttpExchange exchange, String path) throws IOException;
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, "{\"error\":" + Json.quote(message) + "}");
+    }
+
+    private static void handle(HttpExchange exchange, Handler handler) throws IOException {
+        Response response;
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String rest = path.substring(exchange.getHttpContext().getPath().length());
+            response = handler.handle(exchange, rest.startsWith("/") ? rest.substring(1) : rest);
+        } catch (IllegalArgumentException e) {
+            response = error(400, e.getMessage());
+        }
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(response.status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private Response transactions(HttpExchange exchange, String path) throws IOException {
+        if (exchange.getRequestMethod().equals("POST") && path.isEmpty()) {
+            return submit(exchange);
+        }
+        if (!exchange.getRequestMethod().equals("GET") || path.isEmpty()) {
+            return error(405, "Use POST /transactions or GET /transactions/<id>");
+        }
+        TransactionIndex.Entry entry = transactionIndex.get(Hash256.fromHex(path));
+        if (entry == null) {
+            return error(404, "Unknown transaction " + path);
+        }
+        return new Response(200, status(entry));
+    }
+
+    private Response submit(HttpExchange exchange) throws IOException {
+        String body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Map<String, String> fields = Json.parseObject(body);
+        String from = fields.get("from");
+        String to = fields.get("to");
+        if (from == null || to == null || !fields.containsKey("amount")) {
+            throw new IllegalArgumentException("A transaction needs from, to and amount");
+        }
+        checkAccountId(from);
+        checkAccountId(to);
+        int amount = Integer.parseInt(fields.get("amount"));
+        int incentive = Integer.parseInt(fields.getOrDefault("incentive", "0"));
+        // A negative amount would move money from the receiver, who never signed anything
+        if (amount <= 0) {
+            throw new IllegalArgumentException("The amount must be positive");
+        }
+        if (incentive < 0) {
+            throw new IllegalArgumentException("The incentive must not be negative");
+        }
+        String signature = fields.get("signature");
+        Transaction txn = new Transaction(from, to, amount, incentive,
+                signature == null ? null : Base64.getDecoder().decode(signature));
+        // Not recorded in the index, or a forged copy would block the genuine transaction with the same id
+        if (signatures != null && !signatures.verify(txn)) {
+            return error(403, "Transaction is not signed by " + from);
+        }
+        boolean accepted = mempool.submit(txn);
+        // A repeated submission reports the status of the original
+        return new Response(accepted ? 202 : 200, status(transactionIndex.get(txn.id())));
+    }
+
+    // Ids are whitespace-separated tokens in the input and quoted in the printed chain, so neither may appear in one
+    private static void checkAccountId(String id) {
+        if (id.isEmpty()) {
+            throw new IllegalArgumentException("Account ids must not be empty");
+        }
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c) || Character.isISOControl(c) || c == '"' || c == '\'' || c == '\\') {
+                throw new IllegalArgumentException("Account id contains a character that is not allowed: " + Json.quote(id));
+            }
+        }
+    }
+
+    private static String status(TransactionIndex.Entry entry) {
+        String json = "{\"id\":\"" + entry.txn.id() + "\",\"hash\":\"" + entry.txn.getTransactionHash()
+                + "\",\"status\":\"" + entry.status + "\"";
+        if (entry.status == TransactionIndex.Status.CONFIRMED) {
+            json += ",\"block\":" + entry.blockNumber + ",\"position\":" + entry.position;
+        }
+        return json + "}";
+    }
+
+    private Response balance(HttpExchange exchange, String account) {
+        if (account.endsWith("/proof")) {
+            return balanceProof(account.substring(0, account.length() - "/proof".length()));
+        }
+        long balance;
+        synchronized (producer.ledgerLock()) {
+            if (ledger.indexOf(account) < 0) {
+                return error(404, "Unknown account " + account);
+            }
+            balance = ledger.balance(account);
+        }
+        return new Response(200, "{\"account\":" + Json.quote(account) + ",\"balance\":" + balance + "}");
+    }
+
+    private Response balanceProof(String account) {
+        StateTree tree = producer.stateTree();
+        if (tree == null) {
+            return error(404, "State roots are off, start the node with -Dblockchain.state.root=true");
+        }
+        StateTree.Proof proof;
+        Hash256 stateRoot;
+        int blockNumber;
+        synchronized (producer.ledgerLock()) {
+            proof = tree.proof(account);
+            stateRoot = tree.root();
+            blockNumber = producer.stateTreeBlock();
+        }
+        if (proof == null) {
+            return error(404, "No balance to prove for " + account);
+        }
+        StringBuilder json = new StringBuilder(256 + 67 * proof.siblings.length)
+                .append("{\"account\":").append(Json.quote(account))
+                .append(",\"balance\":").append(proof.balance)
+                .append(",\"block\":").append(blockNumber)
+                .append(",\"stateRoot\":\"").append(stateRoot)
+                .append("\",\"siblings\":[");
+        for (int i = 0; i < proof.siblings.length; i++) {
+            json.append(i == 0 ? "\"" : ",\"").append(proof.siblings[i]).append('"');
+        }
+        return new Response(200, json.append("]}").toString());
+    }
+
+    private Response block(HttpExchange exchange, String key) throws IOException {
+        Block block;
+        if (key.equals("latest")) {
+            block = store.tip();
+        } else if (key.length() == Hash256.SIZE * 2) {
+            block = store.get(Hash256.fromHex(key));
+        } else {
+            try {
+                block = store.get(Integer.parseInt(key));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected a block number, a block hash or latest: " + key);
+            }
+        }
+        return block == null ? error(404, "Unknown block " + key) : new Response(200, Json.block(block));
+    }
+
+    // Streams every block sealed after ?from=N (default: the current tip) until the client goes away
+    private void subscribe(HttpExchange exchange) throws IOException {
+        int next;
+        String query = exchange.getRequestURI().getQuery();
+        try {
+            next = query != null && query.startsWith("from=") ? Integer.parseInt(query.substring(5)) + 1 : feed.tip() + 1;
+        } catch (NumberFormatException e) {
+            handle(exchange, (ex, path) -> error(400, "Expected ?from=<block number>"));
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            while (running) {
+                int tip = feed.awaitAfter(next - 1, SUBSCRIBE_POLL_SECONDS, TimeUnit.SECONDS);
+                if (tip < next) {
+                    // A comment line keeps idle connections open and finds clients that have gone
+                    out.write(": keep-alive\n\n".getBytes(StandardCharsets.UTF_8));
+                }
+                for (; next <= tip; next++) {
+                    Block block = store.get(next);
+                    if (block != null) {
+                        out.write(("id: " + next + "\ndata: " + Json.block(block) + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The subscriber disconnected
+        }
+    }
+
+    // One virtual thread per request where the JDK supports it, found reflectively so the node still builds on older JDKs
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java NodeServer input.txt [port]");
+            System.exit(2);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        AccountLedger ledger = new AccountLedger();
+        TransactionIndex transactionIndex = new TransactionIndex();
+        Mempool mempool = new Mempool(transactionIndex);
+        MinerRegistry miners = new MinerRegistry();
+        SignatureVerifier signatures = SignatureVerifier.fromConfig();
+        // Open the store first, so that transactions it already holds are not taken again after a restart
+        String storeDir = System.getProperty("blockchain.store.dir");
+        Path dir = storeDir != null ? Paths.get(storeDir) : Files.createTempDirectory("blockchain-node");
+        BlockStore store = BlockStore.open(dir);
+        transactionIndex.confirmStored(store);
+        long blockReward;
+        int numTxn;
+        try (InputReader reader = InputReader.open(Paths.get(args[0]))) {
+            int numAcc = reader.nextInt();
+            for (int i = 0; i < numAcc; i++) {
+                ledger.set(ledger.intern(reader.nextToken()), reader.nextLong());
+            }
+            numTxn = reader.nextInt();
+            Iterator<Transaction> transactions = reader.transactions(numTxn, signatures != null);
+            // Those an earlier run on this store already decided are read past, as in BlockChain
+            for (long i = Math.min(store.inputPosition(), numTxn); i > 0; i--) {
+                transactions.next();
+            }
+            if (signatures == null) {
+                transactions.forEachRemaining(mempool::submit);
+            } else {
+                signatures.forEachValid(transactions, mempool::submit);
+            }
+            blockReward = reader.nextLong();
+            int numMiners = reader.nextInt();
+            for (int i = 0; i < numMiners; i++) {
+                miners.register(reader.nextMiner());
+            }
+        }
+
+        String stateDir = System.getProperty("blockchain.state.dir");
+        StateStore state = stateDir == null ? null : StateStore.open(Paths.get(stateDir));
+        NodeServer node = new NodeServer(ledger, mempool, transactionIndex, miners, blockReward, BlockSink.fromConfig(), store, state, signatures);
+        node.inputTransactions = numTxn;
+        HttpServer server = node.start(port, requestExecutor());
+        System.err.println("Node listening on " + server.getAddress().getAddress().getHostAddress() + ":"
+                + server.getAddress().getPort() + ", storing blocks in " + dir);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            node.stop();
+            server.stop(0);
+            synchronized (node.sealLock) {
+                try {
+                    node.producer.close();
+                    node.feed.close();
+                    store.close();
+                    if (state != null) {
+                        state.close();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Closing the node failed: " + e.getMessage());
+                }
+            }
+        }));
+    }
+}
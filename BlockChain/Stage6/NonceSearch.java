@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+// Splits the nonce space into fixed-size ranges that pool workers claim in increasing order.
+// A worker stops as soon as a valid nonce below its position is known, so the result is
+// always the lowest valid nonce - the same one the sequential search returns. Both searches cover
+// 0 to Integer.MAX_VALUE - 1 and throw when none of those nonces meets the difficulty.
+class NonceSearch {
+    static final int THREADS = Integer.getInteger("blockchain.pow.threads", Runtime.getRuntime().availableProcessors());
+    private static final NonceSearch SHARED = new NonceSearch(THREADS, Integer.getInteger("blockchain.pow.chunk", 64));
+
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final int chunkSize;
+
+    NonceSearch(int parallelism, int chunkSize) {
+        this(parallelism > 1 ? new ForkJoinPool(parallelism) : null, parallelism, chunkSize);
+    }
+
+    NonceSearch(ForkJoinPool pool, int parallelism, int chunkSize) {
+        if (parallelism < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid nonce search settings: " + parallelism + " threads, chunk " + chunkSize);
+        }
+        this.pool = pool;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    static NonceSearch shared() {
+        return SHARED;
+    }
+
+    int findLowest(IntPredicate isValid) {
+        if (pool == null) {
+            return findSequential(isValid);
+        }
+        AtomicInteger nextChunk = new AtomicInteger();
+        AtomicInteger lowest = new AtomicInteger(Integer.MAX_VALUE);
+        List<ForkJoinTask<?>> workers = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(pool.submit(() -> scan(isValid, nextChunk, lowest)));
+        }
+        for (ForkJoinTask<?> worker : workers) {
+            worker.join();
+        }
+        if (lowest.get() == Integer.MAX_VALUE) {
+            throw noNonce();
+        }
+        return lowest.get();
+    }
+
+    private void scan(IntPredicate isValid, AtomicInteger nextChunk, AtomicInteger lowest) {
+        while (true) {
+            int start = nextChunk.getAndAdd(chunkSize);
+            // Every range below this one is already claimed, so nothing lower can be missed
+            if (start >= lowest.get() || start < 0) {
+                return;
+            }
+            int end = start + chunkSize < start ? Integer.MAX_VALUE : start + chunkSize;
+            for (int nonce = start; nonce < end && nonce < lowest.get(); nonce++) {
+                boolean valid = isValid.test(nonce);
+                if (Metrics.ENABLED) {
+                    Metrics.NONCE_ATTEMPTS.increment();
+                }
+                if (valid) {
+                    lowest.accumulateAndGet(nonce, Math::min);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static int findSequential(IntPredicate isValid) {
+        for (int nonce = 0; nonce < Integer.MAX_VALUE; nonce++) {
+            if (isValid.test(nonce)) {
+                if (Metrics.ENABLED) {
+                    Metrics.NONCE_ATTEMPTS.add(nonce + 1L);
+                }
+                return nonce;
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.NONCE_ATTEMPTS.add(Integer.MAX_VALUE);
+        }
+        throw noNonce();
+    }
+
+    private static IllegalStateException noNonce() {
+        return new IllegalStateException("No nonce below " + Integer.MAX_VALUE + " meets the difficulty");
+    }
+}
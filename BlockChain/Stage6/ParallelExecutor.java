@@ -0,0 +1,455 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Block-STM execution of a window of transactions (Gelashvili et al., "Block-STM: Scaling Blockchain
+// Execution by Turning Ordering Curse to a Performance Blessing"). Worker threads execute
+// transactions speculatively against a multi-version store that holds, per account, the balance
+// written by each transaction of the window. Every execution records which transaction's write
+// (and which incarnation of it) it read; validation re-reads those accounts and aborts a
+// transaction whose reads have been overwritten. An aborted transaction's writes become estimates,
+// and a later transaction that reads an estimate waits for it instead of running on a stale value.
+// Only transactions whose reads were invalidated run again.
+//
+// The outcomes are then committed to the ledger in order. A block sealed part-way through the
+// window credits its miner, which the parallel run could not see, so a transaction whose sender
+// balance no longer matches the one it read is re-checked against the ledger. The accepted and
+// rejected sets and the final balances are the same as a sequential pass.
+class ParallelExecutor implements Closeable {
+    private static final byte READY = 0;
+    private static final byte EXECUTING = 1;
+    private static final byte EXECUTED = 2;
+    private static final byte ABORTING = 3;
+    private static final int BASE = -1; // version of a balance read from the ledger, not from the window
+    private static final int DONE = -1;
+    private static final int DONE_WROTE_NEW = -2;
+
+    interface Listener {
+        void accepted(Transaction txn) throws IOException;
+
+        void rejected(Transaction txn);
+    }
+
+    private final AccountLedger ledger;
+    private final Object ledgerLock;
+    private final int threads;
+    private final ForkJoinPool pool;
+
+    // The ledger is only changed holding ledgerLock, for readers on other threads
+    ParallelExecutor(AccountLedger ledger, Object ledgerLock, int threads) {
+        this.ledger = ledger;
+        this.ledgerLock = ledgerLock;
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    void execute(List<Transaction> window, Listener listener) throws IOException {
+        int n = window.size();
+        int[] from = new int[n];
+        int[] to = new int[n];
+        // Interning can grow the ledger, so it happens before any concurrent reads
+        synchronized (ledgerLock) {
+            for (int i = 0; i < n; i++) {
+                from[i] = ledger.intern(window.get(i).from);
+                to[i] = ledger.intern(window.get(i).to);
+            }
+        }
+        Run run = new Run(window, from, to);
+        List<ForkJoinTask<?>> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(run::work));
+        }
+        for (ForkJoinTask<?> worker : workers) {
+            worker.join();
+        }
+
+        long rechecked = 0;
+        for (int i = 0; i < n; i++) {
+            Transaction txn = window.get(i);
+            TxnState state = run.txns[i];
+            long balance = ledger.balance(from[i]);
+            boolean ok = state.accepted;
+            if (balance != state.fromBalance) {
+                ok = balance >= txn.amount;
+                rechecked++;
+            }
+            if (ok) {
+                synchronized (ledgerLock) {
+                    ledger.debitIfSufficient(from[i], txn.amount);
+                    ledger.credit(to[i], txn.amount);
+                }
+                listener.accepted(txn);
+            } else {
+                listener.rejected(txn);
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.EXEC_COMMIT_RECHECKS.add(rechecked);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    // A balance in the multi-version store: written by an incarnation of a transaction, or an
+    // estimate left by one that was aborted
+    private static final class Version {
+        final int incarnation;
+        final long balance;
+        final boolean estimate;
+
+        Version(int incarnation, long balance, boolean estimate) {
+            this.incarnation = incarnation;
+            this.balance = balance;
+            this.estimate = estimate;
+        }
+    }
+
+    // Which write a transaction read an account from: the writer's index and incarnation, or BASE
+    private static final class Read {
+        final int account;
+        final int writer;
+        final int incarnation;
+
+        Read(int account, int writer, int incarnation) {
+            this.account = account;
+            this.writer = writer;
+            this.incarnation = incarnation;
+        }
+    }
+
+    // Scheduling state and the last recorded execution of one transaction, guarded by its monitor
+    private static final class TxnState {
+        int incarnation;
+        byte status = READY;
+        List<Integer> dependents = new ArrayList<>();
+        // Written by the one incarnation executing at a time, read by validators
+        volatile Read[] reads = new Read[0];
+        volatile int[] written = new int[0];
+        long fromBalance;
+        boolean accepted;
+    }
+
+    private static final class Task {
+        final int txn;
+        final int incarnation;
+        final boolean execution;
+
+        Task(int txn, int incarnation, boolean execution) {
+            this.txn = txn;
+            this.incarnation = incarnation;
+            this.execution = execution;
+        }
+    }
+
+    // One window's multi-version store and collaborative scheduler
+    private final class Run {
+        private final List<Transaction> window;
+        private final int[] from;
+        private final int[] to;
+        private final int n;
+        private final TxnState[] txns;
+        private final Map<Integer, ConcurrentSkipListMap<Integer, Version>> versions = new HashMap<>();
+        private final AtomicInteger executionIndex = new AtomicInteger();
+        private final AtomicInteger validationIndex = new AtomicInteger();
+        private final AtomicInteger decreaseCount = new AtomicInteger();
+        private final AtomicInteger activeTasks = new AtomicInteger();
+        private volatile boolean done;
+
+        Run(List<Transaction> window, int[] from, int[] to) {
+            this.window = window;
+            this.from = from;
+            this.to = to;
+            this.n = window.size();
+            this.txns = new TxnState[n];
+            for (int i = 0; i < n; i++) {
+                txns[i] = new TxnState();
+                // Every account the window can write gets its map up front, so the outer map is read-only
+                versions.computeIfAbsent(from[i], account -> new ConcurrentSkipListMap<>());
+                versions.computeIfAbsent(to[i], account -> new ConcurrentSkipListMap<>());
+            }
+            done = n == 0;
+        }
+
+        void work() {
+            Task task = null;
+            while (!done) {
+                if (task != null) {
+                    task = task.execution ? tryExecute(task) : validate(task);
+                }
+                if (task == null) {
+                    task = nextTask();
+                    if (task == null) {
+                        Thread.yield();
+                    }
+                }
+            }
+        }
+
+        private Task tryExecute(Task task) {
+            while (true) {
+                if (Metrics.ENABLED) {
+                    Metrics.EXEC_INCARNATIONS.increment();
+                    if (task.incarnation > 0) {
+                        Metrics.EXEC_REEXECUTIONS.increment();
+                    }
+                }
+                int result = executeTransaction(task.txn, task.incarnation);
+                if (result == DONE || result == DONE_WROTE_NEW) {
+                    return finishExecution(task.txn, task.incarnation, result == DONE_WROTE_NEW);
+                }
+                if (addDependency(task.txn, result)) {
+                    return null;
+                }
+                // The blocking transaction finished in the meantime, so its write can be read now
+            }
+        }
+
+        // Runs the balance check and records the reads and writes, or returns the index of an
+        // aborted transaction whose estimate was read
+        private int executeTransaction(int i, int incarnation) {
+            Transaction txn = window.get(i);
+            List<Read> reads = new ArrayList<>(2);
+            long fromBalance = read(from[i], i, reads);
+            if (reads.get(0) == null) {
+                return blockingIndex(fromBalance);
+            }
+            boolean accepted = fromBalance >= txn.amount;
+            int[] accounts = new int[0];
+            long[] balances = new long[0];
+            // Paying oneself leaves the balance as it was, so it writes nothing
+            if (accepted && from[i] != to[i]) {
+                long toBalance = read(to[i], i, reads);
+                if (reads.get(1) == null) {
+                    return blockingIndex(toBalance);
+                }
+                accounts = new int[] {from[i], to[i]};
+                balances = new long[] {fromBalance - txn.amount, toBalance + txn.amount};
+            }
+            return record(i, incarnation, reads, accounts, balances, fromBalance, accepted) ? DONE_WROTE_NEW : DONE;
+        }
+
+        // The balance of account as transaction i sees it, adding the version read to reads. When
+        // it would read an estimate, a null is added instead and -(blocking index + 1) returned.
+        private long read(int account, int i, List<Read> reads) {
+            Map.Entry<Integer, Version> entry = versions.get(account).lowerEntry(i);
+            if (entry == null) {
+                reads.add(new Read(account, BASE, 0));
+                return ledger.balance(account);
+            }
+            if (entry.getValue().estimate) {
+                reads.add(null);
+                return -(entry.getKey() + 1L);
+            }
+            reads.add(new Read(account, entry.getKey(), entry.getValue().incarnation));
+            return entry.getValue().balance;
+        }
+
+        private int blockingIndex(long readResult) {
+            return (int) -(readResult + 1);
+        }
+
+        // Publishes an execution's writes, removing those of its previous incarnation that it no
+        // longer makes; returns whether it wrote an account the previous incarnation did not
+        private boolean record(int i, int incarnation, List<Read> reads, int[] accounts, long[] balances,
+                               long fromBalance, boolean accepted) {
+            TxnState state = txns[i];
+            for (int k = 0; k < accounts.length; k++) {
+                versions.get(accounts[k]).put(i, new Version(incarnation, balances[k], false));
+            }
+            boolean wroteNew = false;
+            for (int account : accounts) {
+                wroteNew |= !contains(state.written, account);
+            }
+            for (int account : state.written) {
+                if (!contains(accounts, account)) {
+                    versions.get(account).remove(i);
+                }
+            }
+            state.written = accounts;
+            state.reads = reads.toArray(new Read[0]);
+            state.fromBalance = fromBalance;
+            state.accepted = accepted;
+            return wroteNew;
+        }
+
+        private boolean readsStillValid(int i) {
+            for (Read read : txns[i].reads) {
+                Map.Entry<Integer, Version> entry = versions.get(read.account).lowerEntry(i);
+                if (entry == null) {
+                    if (read.writer != BASE) {
+                        return false;
+                    }
+                } else if (entry.getValue().estimate || entry.getKey() != read.writer
+                        || entry.getValue().incarnation != read.incarnation) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Task validate(Task task) {
+            int i = task.txn;
+            boolean aborted = !readsStillValid(i) && tryValidationAbort(i, task.incarnation);
+            if (aborted) {
+                for (int account : txns[i].written) {
+                    versions.get(account).put(i, new Version(task.incarnation, 0, true));
+                }
+                setReady(i);
+                decreaseValidationIndex(i + 1);
+                if (executionIndex.get() > i) {
+                    Task reExecution = tryIncarnate(i);
+                    if (reExecution != null) {
+                        return reExecution;
+                    }
+                }
+            }
+            activeTasks.decrementAndGet();
+            return null;
+        }
+
+        private Task nextTask() {
+            if (validationIndex.get() < executionIndex.get()) {
+                if (validationIndex.get() >= n) {
+                    checkDone();
+                    return null;
+                }
+                activeTasks.incrementAndGet();
+                int i = validationIndex.getAndIncrement();
+                if (i < n) {
+                    TxnState state = txns[i];
+                    synchronized (state) {
+                        if (state.status == EXECUTED) {
+                            return new Task(i, state.incarnation, false);
+                        }
+                    }
+                }
+                activeTasks.decrementAndGet();
+                return null;
+            }
+            if (executionIndex.get() >= n) {
+                checkDone();
+                return null;
+            }
+            activeTasks.incrementAndGet();
+            Task execution = tryIncarnate(executionIndex.getAndIncrement());
+            if (execution == null) {
+                activeTasks.decrementAndGet();
+            }
+            return execution;
+        }
+
+        private Task tryIncarnate(int i) {
+            if (i >= n) {
+                return null;
+            }
+            TxnState state = txns[i];
+            synchronized (state) {
+                if (state.status != READY) {
+                    return null;
+                }
+                state.status = EXECUTING;
+                return new Task(i, state.incarnation, true);
+            }
+        }
+
+        private Task finishExecution(int i, int incarnation, boolean wroteNew) {
+            TxnState state = txns[i];
+            List<Integer> dependents;
+            synchronized (state) {
+                state.status = EXECUTED;
+                dependents = state.dependents;
+                state.dependents = new ArrayList<>();
+            }
+            if (!dependents.isEmpty()) {
+                int lowest = n;
+                for (int dependent : dependents) {
+                    setReady(dependent);
+                    lowest = Math.min(lowest, dependent);
+                }
+                decreaseExecutionIndex(lowest);
+            }
+            if (validationIndex.get() > i) {
+                if (!wroteNew) {
+                    // Nothing later can have read a write this incarnation added, so only it needs validating
+                    return new Task(i, incarnation, false);
+                }
+                decreaseValidationIndex(i);
+            }
+            activeTasks.decrementAndGet();
+            return null;
+        }
+
+        // Parks transaction i until blocking has executed again; false if it already has
+        private boolean addDependency(int i, int blocking) {
+            TxnState blocker = txns[blocking];
+            synchronized (blocker) {
+                if (blocker.status == EXECUTED) {
+                    return false;
+                }
+                // Locks are only ever nested from a lower index to a higher one
+                synchronized (txns[i]) {
+                    txns[i].status = ABORTING;
+                }
+                blocker.dependents.add(i);
+            }
+            activeTasks.decrementAndGet();
+            return true;
+        }
+
+        private boolean tryValidationAbort(int i, int incarnation) {
+            TxnState state = txns[i];
+            synchronized (state) {
+                if (state.incarnation != incarnation || state.status != EXECUTED) {
+                    return false;
+                }
+                state.status = ABORTING;
+                return true;
+            }
+        }
+
+        private void setReady(int i) {
+            TxnState state = txns[i];
+            synchronized (state) {
+                state.incarnation++;
+                state.status = READY;
+            }
+        }
+
+        private void decreaseExecutionIndex(int target) {
+            executionIndex.accumulateAndGet(target, Math::min);
+            decreaseCount.incrementAndGet();
+        }
+
+        private void decreaseValidationIndex(int target) {
+            validationIndex.accumulateAndGet(target, Math::min);
+            decreaseCount.incrementAndGet();
+        }
+
+        private void checkDone() {
+            int observed = decreaseCount.get();
+            if (Math.min(executionIndex.get(), validationIndex.get()) >= n && activeTasks.get() == 0
+                    && observed == decreaseCount.get()) {
+                done = true;
+            }
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load generator for NodeServer. Each of the given number of concurrent clients keeps exactly one
+// request in flight, alternating transaction submissions and balance queries for random accounts,
+// and the run reports requests per second, latency percentiles and the status codes seen.
+//
+//   java RpcLoadTest [base url] [concurrent clients] [seconds] [accounts]
+class RpcLoadTest {
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        ExecutorService executor = NodeServer.requestExecutor();
+        HttpClient http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(executor)
+                .build();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Client[] lanes = new Client[clients];
+        CountDownLatch done = new CountDownLatch(clients);
+        Stats stats = new Stats();
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            lanes[i] = new Client(http, baseUrl, accounts, deadline, new Random(i), stats, done);
+            lanes[i].next();
+        }
+        done.await();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+
+        long[] latencies = merge(lanes);
+        Arrays.sort(latencies);
+        System.out.printf("%d clients, %d requests in %.1f s: %.0f requests/s%n", clients, latencies.length, elapsed, latencies.length / elapsed);
+        System.out.printf("latency ms  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6);
+        System.out.println("status codes " + stats.statuses + ", failures " + stats.failures.sum());
+    }
+
+    private static long[] merge(Client[] lanes) {
+        int total = 0;
+        for (Client lane : lanes) {
+            total += lane.count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (Client lane : lanes) {
+            System.arraycopy(lane.latencies, 0, all, offset, lane.count);
+            offset += lane.count;
+        }
+        return all;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+
+    private static final class Stats {
+        final ConcurrentHashMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder failures = new LongAdder();
+    }
+
+    // One request at a time; the next is sent from the completion of the previous one
+    private static final class Client {
+        private final HttpClient http;
+        private final String baseUrl;
+        private final int accounts;
+        private final long deadline;
+        private final Random random;
+        private final Stats stats;
+        private final CountDownLatch done;
+        long[] latencies = new long[1024];
+        int count;
+        private long sent;
+
+        Client(HttpClient http, String baseUrl, int accounts, long deadline, Random random, Stats stats, CountDownLatch done) {
+            this.http = http;
+            this.baseUrl = baseUrl;
+            this.accounts = accounts;
+            this.deadline = deadline;
+            this.random = random;
+            this.stats = stats;
+            this.done = done;
+        }
+
+        void next() {
+            if (System.nanoTime() >= deadline) {
+                done.countDown();
+                return;
+            }
+            HttpRequest request;
+            if ((sent++ & 1) == 0) {
+                String body = "{\"from\":\"acc" + random.nextInt(accounts) + "\",\"to\":\"acc" + random.nextInt(accounts)
+                        + "\",\"amount\":" + (1 + random.nextInt(100)) + ",\"incentive\":" + random.nextInt(10) + "}";
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/transactions"))
+                        .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+            } else {
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/balances/acc" + random.nextInt(accounts))).build();
+            }
+            long start = System.nanoTime();
+            http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+                if (failure != null) {
+                    stats.failures.increment();
+                } else {
+                    stats.statuses.computeIfAbsent(response.statusCode(), status -> new LongAdder()).increment();
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                next();
+            });
+        }
+    }
+}
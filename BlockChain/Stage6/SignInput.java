@@ -0,0 +1,65 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+// Turns an ordinary input file into one for -Dblockchain.sig.keys: generates an Ed25519 key pair for
+// every sending account, signs each transaction with its sender's key, and writes the signed input
+// and the public keys. The private keys are not kept.
+//
+//   java SignInput input.txt signed.txt keys.txt
+//   java -Dblockchain.sig.keys=keys.txt BlockChain signed.txt
+class SignInput {
+    public static void main(String[] args) throws IOException, GeneralSecurityException {
+        if (args.length != 3) {
+            System.err.println("Usage: java SignInput input.txt signed.txt keys.txt");
+            System.exit(2);
+        }
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        Map<String, PrivateKey> privateKeys = new HashMap<>();
+        AccountKeys keys = new AccountKeys();
+        Base64.Encoder base64 = Base64.getEncoder();
+        try (InputReader reader = InputReader.open(Paths.get(args[0]));
+             BufferedWriter out = Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+            int numAcc = reader.nextInt();
+            out.write(numAcc + "\n");
+            for (int i = 0; i < numAcc; i++) {
+                out.write(reader.nextToken() + " " + reader.nextLong() + "\n");
+            }
+            int numTxn = reader.nextInt();
+            out.write(numTxn + "\n");
+            for (int i = 0; i < numTxn; i++) {
+                Transaction txn = reader.nextTransaction();
+                PrivateKey key = privateKeys.get(txn.from);
+                if (key == null) {
+                    KeyPair pair = generator.generateKeyPair();
+                    key = pair.getPrivate();
+                    privateKeys.put(txn.from, key);
+                    keys.register(txn.from, pair.getPublic());
+                }
+                out.write(txn.from + " " + txn.to + " " + txn.amount + " " + txn.incentive + " "
+                        + base64.encodeToString(SignatureVerifier.sign(txn, key)) + "\n");
+            }
+            out.write(reader.nextLong() + "\n");
+            int numMiners = reader.nextInt();
+            out.write(numMiners + "\n");
+            for (int i = 0; i < numMiners; i++) {
+                Miner miner = reader.nextMiner();
+                StringBuilder line = new StringBuilder(miner.id).append(' ').append(miner.computationScore);
+                for (int score : miner.blockHashScoreArray) {
+                    line.append(' ').append(score);
+                }
+                out.write(line.append('\n').toString());
+            }
+        }
+        keys.write(Paths.get(args[2]));
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+// Checks that each transaction carries an Ed25519 signature over its signedBytes() by the sender's
+// registered key. Batches are split into fork-join tasks, so verification runs on every core, and
+// transactions already verified are remembered by Transaction.id(), so a resubmission or a gossiped
+// copy costs at most one SHA3. The cache keeps two generations of about cacheSize / 2 entries each;
+// when the newer one fills up, the older one is dropped.
+//
+// Switched on with -Dblockchain.sig.keys=<file> (see AccountKeys); transactions in the input then
+// carry a fifth field, the base64 signature.
+class SignatureVerifier {
+    private static final int TASK_SIZE = 16;
+    static final int BATCH_SIZE = Integer.getInteger("blockchain.sig.batch", 4096);
+    private static final int CACHE_SIZE = Integer.getInteger("blockchain.sig.cache", 1 << 20);
+
+    private static final ThreadLocal<Signature> ED25519 = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("Ed25519");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Signature error: " + e.getMessage());
+        }
+    });
+
+    private final AccountKeys keys;
+    private final ForkJoinPool pool;
+    private final int generationSize;
+    private volatile Set<Hash256> recent = ConcurrentHashMap.newKeySet();
+    private volatile Set<Hash256> older = ConcurrentHashMap.newKeySet();
+
+    SignatureVerifier(AccountKeys keys, ForkJoinPool pool, int cacheSize) {
+        this.keys = keys;
+        this.pool = pool;
+        this.generationSize = Math.max(1, cacheSize / 2);
+    }
+
+    // Null unless blockchain.sig.keys names a key file
+    static SignatureVerifier fromConfig() throws IOException {
+        String file = System.getProperty("blockchain.sig.keys");
+        if (file == null) {
+            return null;
+        }
+        return new SignatureVerifier(AccountKeys.load(Paths.get(file)), ForkJoinPool.commonPool(), CACHE_SIZE);
+    }
+
+    static byte[] sign(Transaction txn, PrivateKey key) {
+        try {
+            Signature signer = ED25519.get();
+            signer.initSign(key);
+            signer.update(txn.signedBytes());
+            return signer.sign();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Signature error: " + e.getMessage());
+        }
+    }
+
+    boolean verify(Transaction txn) {
+        Hash256 id = txn.id();
+        if (recent.contains(id) || older.contains(id)) {
+            if (Metrics.ENABLED) {
+                Metrics.SIGNATURE_CACHE_HITS.increment();
+            }
+            return true;
+        }
+        PublicKey key = keys.get(txn.from);
+        if (key == null || txn.signature == null) {
+            return false;
+        }
+        if (Metrics.ENABLED) {
+            Metrics.SIGNATURES_VERIFIED.increment();
+        }
+        boolean valid;
+        try {
+            Signature verifier = ED25519.get();
+            verifier.initVerify(key);
+            verifier.update(txn.signedBytes());
+            valid = verifier.verify(txn.signature);
+        } catch (GeneralSecurityException e) {
+            // A malformed signature is just an invalid one
+            valid = false;
+        }
+        if (valid) {
+            remember(id);
+        }
+        return valid;
+    }
+
+    private void remember(Hash256 id) {
+        Set<Hash256> current = recent;
+        current.add(id);
+        if (current.size() >= generationSize) {
+            synchronized (this) {
+                if (recent == current) {
+                    older = current;
+                    recent = ConcurrentHashMap.newKeySet();
+                }
+            }
+        }
+    }
+
+    // valid[i] is whether batch.get(i) is properly signed
+    boolean[] verify(List<Transaction> batch) {
+        long start = Metrics.start();
+        boolean[] valid = new boolean[batch.size()];
+        if (batch.size() <= TASK_SIZE) {
+            for (int i = 0; i < valid.length; i++) {
+                valid[i] = verify(batch.get(i));
+            }
+        } else {
+            pool.invoke(new VerifyRange(batch, valid, 0, valid.length));
+        }
+        if (Metrics.ENABLED) {
+            Metrics.SIGNATURES.record(start);
+        }
+        return valid;
+    }
+
+    // Hands the properly signed transactions to action in their original order, verifying BATCH_SIZE at a time
+    void forEachValid(Iterator<Transaction> transactions, Consumer<Transaction> action) {
+        List<Transaction> batch = new ArrayList<>(BATCH_SIZE);
+        while (transactions.hasNext()) {
+            batch.add(transactions.next());
+            if (batch.size() == BATCH_SIZE || !transactions.hasNext()) {
+                boolean[] valid = verify(batch);
+                for (int i = 0; i < valid.length; i++) {
+                    if (valid[i]) {
+                        action.accept(batch.get(i));
+                    }
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    private final class VerifyRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Transaction> batch;
+        private final boolean[] valid;
+        private final int from;
+        private final int to;
+
+        VerifyRange(List<Transaction> batch, boolean[] valid, int from, int to) {
+            this.batch = batch;
+            this.valid = valid;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_SIZE) {
+                for (int i = from; i < to; i++) {
+                    valid[i] = verify(batch.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new VerifyRange(batch, valid, from, mid), new VerifyRange(batch, valid, mid, to));
+        }
+    }
+}
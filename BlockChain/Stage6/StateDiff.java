@@ -0,0 +1,16 @@
+// Balance changes made by one block: the accounts it touched and how much each balance moved
+final class StateDiff {
+    final int height;
+    final String[] ids;
+    final long[] deltas;
+
+    StateDiff(int height, String[] ids, long[] deltas) {
+        this.height = height;
+        this.ids = ids;
+        this.deltas = deltas;
+    }
+
+    int size() {
+        return ids.length;
+    }
+}
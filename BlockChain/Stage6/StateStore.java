@@ -0,0 +1,265 @@
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+// Account balances by height, so state can be restored without replaying the chain. Every
+// interval blocks the whole ledger is written as a snapshot; in between, each block appends the
+// net change it made to every account it touched:
+//
+//   snapshot-0000001024.dat   [int height][int count] ([UTF id][long balance]) ...
+//   diffs-0000001024.log      [int length][int crc32] ([int height][int count] ([UTF id][long delta]) ...) ...
+//
+// The diff log is named after the snapshot it follows, so restoring a height reads one snapshot
+// and at most interval - 1 diffs however long the chain is. Snapshots are written to a temporary
+// file and renamed into place; a torn diff at the end of the last log is cut off on open. With
+// blockchain.store.sync, every diff is forced to disk like the blocks it belongs to.
+class StateStore implements Closeable {
+    private static final int RECORD_HEADER = 8;
+
+    private final Path dir;
+    private final int interval;
+    private final boolean sync;
+    private final TreeSet<Integer> snapshots = new TreeSet<>();
+    private FileChannel diffs;
+    private int height = -1;
+
+    private StateStore(Path dir, int interval, boolean sync) {
+        this.dir = dir;
+        this.interval = interval;
+        this.sync = sync;
+    }
+
+    static StateStore open(Path dir) throws IOException {
+        return open(dir, Integer.getInteger("blockchain.state.interval", 1024), Boolean.getBoolean("blockchain.store.sync"));
+    }
+
+    static StateStore open(Path dir, int interval, boolean sync) throws IOException {
+        if (interval < 1) {
+            throw new IllegalArgumentException("State snapshot interval must be positive: " + interval);
+        }
+        Files.createDirectories(dir);
+        StateStore state = new StateStore(dir, interval, sync);
+        state.recover();
+        return state;
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "snapshot-*.dat")) {
+            for (Path file : files) {
+                snapshots.add(heightOf(file));
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        int base = snapshots.last();
+        height = base;
+        openDiffs(base);
+        // Only the newest log can have a torn end, and it holds fewer than interval records
+        long offset = 0;
+        long size = diffs.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (offset + RECORD_HEADER <= size) {
+            header.clear();
+            readFully(diffs, header, offset);
+            int length = header.getInt(0);
+            if (length <= 0 || offset + RECORD_HEADER + length > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(diffs, record, offset + RECORD_HEADER);
+            if (header.getInt(4) != crc(record.array())) {
+                break;
+            }
+            height = record.getInt(0);
+            offset += RECORD_HEADER + length;
+        }
+        if (offset < size) {
+            diffs.truncate(offset);
+            diffs.force(true);
+        }
+    }
+
+    // The newest height that can be restored, or -1 when nothing is stored
+    int height() {
+        return height;
+    }
+
+    // Records the changes a block made; every interval blocks the whole ledger is snapshotted instead
+    void record(StateDiff diff, AccountLedger ledger) throws IOException {
+        if (diff.height != height + 1) {
+            throw new IllegalArgumentException("Expected state for height " + (height + 1) + " but got " + diff.height);
+        }
+        if (diff.height % interval == 0) {
+            snapshot(diff.height, ledger);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 24 * diff.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(diff.height);
+        out.writeInt(diff.size());
+        for (int i = 0; i < diff.size(); i++) {
+            out.writeUTF(diff.ids[i]);
+            out.writeLong(diff.deltas[i]);
+        }
+        byte[] record = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + record.length);
+        buffer.putInt(record.length).putInt(crc(record)).put(record).flip();
+        long position = diffs.size();
+        while (buffer.hasRemaining()) {
+            diffs.write(buffer, position + buffer.position());
+        }
+        if (sync) {
+            diffs.force(false);
+        }
+        height = diff.height;
+    }
+
+    // Writes the whole ledger as the state at this height and starts a new diff log after it
+    void snapshot(int snapshotHeight, AccountLedger ledger) throws IOException {
+        Path tmp = dir.resolve(snapshotName(snapshotHeight) + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(snapshotHeight);
+            out.writeInt(ledger.size());
+            for (int account = 0; account < ledger.size(); account++) {
+                out.writeUTF(ledger.id(account));
+                out.writeLong(ledger.balance(account));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(snapshotName(snapshotHeight)), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        snapshots.add(snapshotHeight);
+        if (diffs != null) {
+            diffs.force(true);
+            diffs.close();
+        }
+        openDiffs(snapshotHeight);
+        diffs.truncate(0);
+        height = snapshotHeight;
+    }
+
+    // Loads the balances at the given height into the ledger: the nearest snapshot at or below it,
+    // then the diffs up to it. Returns false if that height is not covered.
+    boolean restore(int target, AccountLedger ledger) throws IOException {
+        Integer base = snapshots.floor(target);
+        if (base == null || target > height) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(dir.resolve(snapshotName(base)), StandardOpenOption.READ))) {
+            in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                ledger.set(ledger.intern(in.readUTF()), in.readLong());
+            }
+        }
+        if (target == base) {
+            return true;
+        }
+        try (FileChannel log = FileChannel.open(diffsPath(base), StandardOpenOption.READ);
+             DataInputStream in = new DataInputStream(Channels.newInputStream(log))) {
+            for (int at = base + 1; at <= target; at++) {
+                in.readInt(); // length
+                in.readInt(); // crc, checked when the log was opened
+                if (in.readInt() != at) {
+                    throw new IOException("State diffs after snapshot " + base + " are not contiguous at height " + at);
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    int account = ledger.intern(in.readUTF());
+                    ledger.set(account, ledger.balance(account) + in.readLong());
+                }
+            }
+        }
+        return true;
+    }
+
+    // Forgets everything after the given height, e.g. state that got ahead of the block store before a crash
+    void rewind(int target) throws IOException {
+        if (target >= height) {
+            return;
+        }
+        while (!snapshots.isEmpty() && snapshots.last() > target) {
+            int dropped = snapshots.pollLast();
+            Files.deleteIfExists(diffsPath(dropped));
+            Files.delete(dir.resolve(snapshotName(dropped)));
+        }
+        if (diffs != null) {
+            diffs.close();
+            diffs = null;
+        }
+        if (snapshots.isEmpty()) {
+            height = -1;
+            return;
+        }
+        int base = snapshots.last();
+        openDiffs(base);
+        height = base;
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER + 4);
+        while (offset < diffs.size()) {
+            header.clear();
+            readFully(diffs, header, offset);
+            if (header.getInt(RECORD_HEADER) > target) {
+                break;
+            }
+            height = header.getInt(RECORD_HEADER);
+            offset += RECORD_HEADER + header.getInt(0);
+        }
+        diffs.truncate(offset);
+        diffs.force(true);
+    }
+
+    private void openDiffs(int base) throws IOException {
+        diffs = FileChannel.open(diffsPath(base), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of state diff log");
+            }
+        }
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static String snapshotName(int height) {
+        return "snapshot-" + String.format("%010d", height) + ".dat";
+    }
+
+    private Path diffsPath(int base) {
+        return dir.resolve("diffs-" + String.format("%010d", base) + ".log");
+    }
+
+    private static int heightOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Integer.parseInt(name.substring("snapshot-".length(), name.length() - ".dat".length()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (diffs != null) {
+            diffs.force(true);
+            diffs.close();
+        }
+    }
+}
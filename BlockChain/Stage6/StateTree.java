@@ -0,0 +1,214 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Sparse Merkle tree over account balances, keyed by SHA3 of the account id so the root does not
+// depend on the order accounts were seen in. Only non-zero balances have leaves, so two nodes that
+// interned different idle accounts still agree on the root. Walking the key bits from the most significant one,
+// a subtree holding a single account is just that account's leaf and an empty subtree hashes to
+// zero, so paths are about log2(accounts) deep rather than 256:
+//
+//   leaf     = SHA3(0x00 || key || balance as 8 big-endian bytes)
+//   internal = SHA3(0x01 || left || right)
+//
+// Updates only clear the cached hashes on their path; root() then rehashes just those nodes, so a
+// block costs O(touched accounts * log accounts) hashes.
+class StateTree {
+    private static final int KEY_BITS = Hash256.SIZE * 8;
+
+    private Node root;
+
+    static StateTree of(AccountLedger ledger) {
+        StateTree tree = new StateTree();
+        for (int account = 0; account < ledger.size(); account++) {
+            tree.put(ledger.id(account), ledger.balance(account));
+        }
+        return tree;
+    }
+
+    // Brings the tree up to date with the accounts a block changed
+    void update(StateDiff diff, AccountLedger ledger) {
+        for (String id : diff.ids) {
+            put(id, ledger.balance(id));
+        }
+    }
+
+    void put(String id, long balance) {
+        Hash256 key = keyOf(id);
+        root = balance == 0 ? remove(root, key, 0) : put(root, new Leaf(key, balance), 0);
+    }
+
+    private static Node put(Node node, Leaf leaf, int depth) {
+        if (node == null) {
+            return leaf;
+        }
+        if (node instanceof Leaf) {
+            Leaf existing = (Leaf) node;
+            if (existing.key.equals(leaf.key)) {
+                return leaf;
+            }
+            // Split until the two keys part ways
+            Internal split = new Internal();
+            Internal parent = split;
+            int d = depth;
+            while (bit(existing.key, d) == bit(leaf.key, d)) {
+                Internal child = new Internal();
+                parent.set(bit(leaf.key, d), child);
+                parent = child;
+                d++;
+            }
+            parent.set(bit(leaf.key, d), leaf);
+            parent.set(bit(existing.key, d), existing);
+            return split;
+        }
+        Internal internal = (Internal) node;
+        int side = bit(leaf.key, depth);
+        internal.set(side, put(internal.child(side), leaf, depth + 1));
+        internal.hash = null;
+        return internal;
+    }
+
+    private static Node remove(Node node, Hash256 key, int depth) {
+        if (node == null) {
+            return null;
+        }
+        if (node instanceof Leaf) {
+            return ((Leaf) node).key.equals(key) ? null : node;
+        }
+        Internal internal = (Internal) node;
+        int side = bit(key, depth);
+        internal.set(side, remove(internal.child(side), key, depth + 1));
+        internal.hash = null;
+        // A subtree left with a single leaf is that leaf, as if the removed one had never been there
+        Node left = internal.child(0);
+        Node right = internal.child(1);
+        if (left == null && (right == null || right instanceof Leaf)) {
+            return right;
+        }
+        if (right == null && left instanceof Leaf) {
+            return left;
+        }
+        return internal;
+    }
+
+    Hash256 root() {
+        return root == null ? Hash256.ZERO : root.hash();
+    }
+
+    // Balance of the account as committed by the tree, zero for an account without a leaf
+    long balance(String id) {
+        Hash256 key = keyOf(id);
+        Node node = root;
+        for (int depth = 0; node instanceof Internal; depth++) {
+            node = ((Internal) node).child(bit(key, depth));
+        }
+        return node != null && ((Leaf) node).key.equals(key) ? ((Leaf) node).balance : 0;
+    }
+
+    // Proof that the account has its current balance under root(), or null for a zero balance
+    Proof proof(String id) {
+        Hash256 key = keyOf(id);
+        List<Hash256> siblings = new ArrayList<>();
+        Node node = root;
+        for (int depth = 0; node instanceof Internal; depth++) {
+            Internal internal = (Internal) node;
+            int side = bit(key, depth);
+            Node sibling = internal.child(1 - side);
+            siblings.add(sibling == null ? Hash256.ZERO : sibling.hash());
+            node = internal.child(side);
+        }
+        if (node == null || !((Leaf) node).key.equals(key)) {
+            return null;
+        }
+        return new Proof(id, ((Leaf) node).balance, siblings.toArray(new Hash256[0]));
+    }
+
+    static boolean verify(Proof proof, Hash256 root) {
+        Hash256 key = keyOf(proof.id);
+        Hash256 node = leafHash(key, proof.balance);
+        for (int depth = proof.siblings.length - 1; depth >= 0; depth--) {
+            node = bit(key, depth) == 0 ? internalHash(node, proof.siblings[depth]) : internalHash(proof.siblings[depth], node);
+        }
+        return node.equals(root);
+    }
+
+    static Hash256 keyOf(String id) {
+        return CryptoUtil.sha3(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int bit(Hash256 key, int depth) {
+        if (depth >= KEY_BITS) {
+            throw new IllegalStateException("Distinct account keys collided over all " + KEY_BITS + " bits");
+        }
+        return (key.byteAt(depth >>> 3) >>> (7 - (depth & 7))) & 1;
+    }
+
+    private static Hash256 leafHash(Hash256 key, long balance) {
+        return HashInput.get().appendByte(0).appendRaw(key).appendRaw(balance).digest();
+    }
+
+    private static Hash256 internalHash(Hash256 left, Hash256 right) {
+        return HashInput.get().appendByte(1).appendRaw(left).appendRaw(right).digest();
+    }
+
+    static final class Proof {
+        final String id;
+        final long balance;
+        final Hash256[] siblings; // from the root down, zero for an empty subtree
+
+        Proof(String id, long balance, Hash256[] siblings) {
+            this.id = id;
+            this.balance = balance;
+            this.siblings = siblings;
+        }
+    }
+
+    private abstract static class Node {
+        abstract Hash256 hash();
+    }
+
+    private static final class Leaf extends Node {
+        final Hash256 key;
+        final long balance;
+        private Hash256 hash;
+
+        Leaf(Hash256 key, long balance) {
+            this.key = key;
+            this.balance = balance;
+        }
+
+        @Override
+        Hash256 hash() {
+            if (hash == null) {
+                hash = leafHash(key, balance);
+            }
+            return hash;
+        }
+    }
+
+    private static final class Internal extends Node {
+        private Node left;
+        private Node right;
+        Hash256 hash; // null when a change below has not been rehashed yet
+
+        Node child(int side) {
+            return side == 0 ? left : right;
+        }
+
+        void set(int side, Node child) {
+            if (side == 0) {
+                left = child;
+            } else {
+                right = child;
+            }
+        }
+
+        @Override
+        Hash256 hash() {
+            if (hash == null) {
+                hash = internalHash(left == null ? Hash256.ZERO : left.hash(), right == null ? Hash256.ZERO : right.hash());
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Content-addressed index from transaction id to the transaction and where it ended up.
+// An id is pending or confirmed at most once, so the index doubles as the duplicate check for submissions. It is
+// keyed by Transaction.id() rather than the transaction hash, which two different transactions can share.
+class TransactionIndex {
+    enum Status { PENDING, CONFIRMED, REJECTED }
+
+    static final class Entry {
+        final Transaction txn;
+        final Status status;
+        final int blockNumber; // 0 unless confirmed
+        final int position;    // index within the block, -1 unless confirmed
+
+        Entry(Transaction txn, Status status, int blockNumber, int position) {
+            this.txn = txn;
+            this.status = status;
+            this.blockNumber = blockNumber;
+            this.position = position;
+        }
+    }
+
+    private final ConcurrentHashMap<Hash256, Entry> entries = new ConcurrentHashMap<>();
+
+    // Returns false if the transaction is already pending or confirmed. A rejected transaction can be
+    // submitted again, since the sender may be able to afford it by now.
+    boolean addPending(Transaction txn) {
+        Hash256 id = txn.id();
+        Entry pending = new Entry(txn, Status.PENDING, 0, -1);
+        while (true) {
+            Entry existing = entries.putIfAbsent(id, pending);
+            if (existing == null) {
+                return true;
+            }
+            if (existing.status != Status.REJECTED) {
+                return false;
+            }
+            if (entries.replace(id, existing, pending)) {
+                return true;
+            }
+        }
+    }
+
+    void confirm(Transaction txn, int blockNumber, int position) {
+        entries.put(txn.id(), new Entry(txn, Status.CONFIRMED, blockNumber, position));
+    }
+
+    void reject(Transaction txn) {
+        entries.put(txn.id(), new Entry(txn, Status.REJECTED, 0, -1));
+    }
+
+    // Records every transaction in the store as confirmed, so that a restarted node resubmitting its
+    // input does not take them again
+    void confirmStored(BlockStore store) throws IOException {
+        Block tip = store.tip();
+        if (tip == null) {
+            return;
+        }
+        for (int number = store.firstNumber(); number <= tip.blockNumber; number++) {
+            List<Transaction> transactions = store.body(number);
+            for (int i = 0; i < transactions.size(); i++) {
+                confirm(transactions.get(i), number, i);
+            }
+        }
+    }
+
+    Entry get(Hash256 id) {
+        return entries.get(id);
+    }
+
+    boolean contains(Hash256 id) {
+        return entries.containsKey(id);
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
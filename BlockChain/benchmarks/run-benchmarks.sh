@@ -0,0 +1,9 @@
+#!/bin/sh
+# Builds the benchmarks and records the results as JSON under results/, one file per commit.
+# Extra arguments are passed to JMH, e.g. ./run-benchmarks.sh MerkleRootBenchmark -p transactions=1000
+set -e
+cd "$(dirname "$0")"
+mvn -B -q package
+mkdir -p results
+commit=$(git rev-parse --short HEAD)
+java -jar target/benchmarks.jar -rf json -rff "results/$commit.json" "$@"
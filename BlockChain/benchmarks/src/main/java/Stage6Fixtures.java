@@ -0,0 +1,271 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+// Builds benchmark workloads against the Stage 6 classes from inside the unnamed package
+public class Stage6Fixtures implements bench.Fixtures {
+    private static final long SEED = 42;
+
+    @Override
+    public Supplier<Object> hashString(int length) {
+        StringBuilder input = new StringBuilder();
+        Random random = new Random(SEED);
+        while (input.length() < length) {
+            input.append((char) ('a' + random.nextInt(26)));
+        }
+        String value = input.toString();
+        return () -> CryptoUtil.hash(value);
+    }
+
+    @Override
+    public Supplier<Object> merkleRoot(int transactions) {
+        List<Transaction> txns = transactions(new Random(SEED), 1000, transactions);
+        // Transactions cache their hash, so each call hashes fresh copies to include the leaf hashing
+        List<Transaction> fresh = new ArrayList<>(transactions);
+        return () -> {
+            fresh.clear();
+            for (Transaction txn : txns) {
+                fresh.add(new Transaction(txn.from, txn.to, txn.amount, txn.incentive));
+            }
+            return Block.computeMerkleRoot(fresh);
+        };
+    }
+
+    @Override
+    public Supplier<Object> computeNonce() {
+        // Cycle through distinct block hashes so the attempts per call average out
+        Hash256[] blockHashes = new Hash256[1024];
+        for (int i = 0; i < blockHashes.length; i++) {
+            blockHashes[i] = CryptoUtil.sha3(("block" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        int[] next = {0};
+        return () -> Block.computeNonce(blockHashes[next[0]++ & (blockHashes.length - 1)], Difficulty.DEFAULT);
+    }
+
+    @Override
+    public Supplier<Object> nonceAttempt(String loop) {
+        Hash256 blockHash = CryptoUtil.sha3("block".getBytes(StandardCharsets.UTF_8));
+        int[] nonce = {0};
+        switch (loop) {
+            case "original":
+                String prefix = blockHash.toString();
+                return () -> originalHash(prefix + nonce[0]++).endsWith("0");
+            case "digest":
+                return () -> Difficulty.DEFAULT.isMetBy(HashInput.get().appendHex(blockHash).append(nonce[0]++).digestToScratch());
+            case "midstate":
+                byte[] hex = blockHash.toString().getBytes(StandardCharsets.US_ASCII);
+                Sha3Midstate midstate = new Sha3Midstate(hex);
+                return () -> Difficulty.DEFAULT.isMetBy(midstate.digestWithNonce(nonce[0]++));
+            default:
+                throw new IllegalArgumentException("Unknown nonce loop: " + loop);
+        }
+    }
+
+    // CryptoUtil.hash as it was in Stages 4 and 5, a new MessageDigest and String.format per call
+    private static String originalHash(String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA3-256");
+            byte[] hashBytes = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hexString = new StringBuilder();
+            for (byte b : hashBytes) {
+                hexString.append(String.format("%02x", b));
+            }
+            return hexString.toString();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Supplier<Object> selectMiner(int miners) {
+        MinerRegistry registry = new MinerRegistry();
+        for (Miner miner : miners(new Random(SEED), miners)) {
+            registry.register(miner);
+        }
+        int[] blockNumber = {0};
+        return () -> registry.select(++blockNumber[0]);
+    }
+
+    @Override
+    public Supplier<Object> pipeline(int accounts, int transactions, int miners) {
+        byte[] input = input(new Random(SEED), accounts, transactions, miners);
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        return () -> {
+            InputStream in = System.in;
+            PrintStream out = System.out;
+            System.setIn(new ByteArrayInputStream(input));
+            System.setOut(discard);
+            try {
+                BlockChain.main(new String[0]);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                System.setIn(in);
+                System.setOut(out);
+            }
+            return input.length;
+        };
+    }
+
+    @Override
+    public Supplier<Object> stateRoot(int accounts, int touched) {
+        Random random = new Random(SEED);
+        StateTree tree = new StateTree();
+        for (int i = 0; i < accounts; i++) {
+            tree.put("acc" + i, 1 + random.nextInt(1000));
+        }
+        tree.root();
+        return () -> {
+            for (int i = 0; i < touched; i++) {
+                tree.put("acc" + random.nextInt(accounts), 1 + random.nextInt(1000));
+            }
+            return tree.root();
+        };
+    }
+
+    @Override
+    public Supplier<Object> verifySignatures(int transactions, boolean cached) {
+        AccountKeys keys = new AccountKeys();
+        Map<String, PrivateKey> privateKeys = new HashMap<>();
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+            for (int i = 0; i < 100; i++) {
+                KeyPair pair = generator.generateKeyPair();
+                keys.register("acc" + i, pair.getPublic());
+                privateKeys.put("acc" + i, pair.getPrivate());
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        List<Transaction> signed = new ArrayList<>(transactions);
+        for (Transaction txn : transactions(new Random(SEED), 100, transactions)) {
+            signed.add(new Transaction(txn.from, txn.to, txn.amount, txn.incentive,
+                    SignatureVerifier.sign(txn, privateKeys.get(txn.from))));
+        }
+        if (cached) {
+            SignatureVerifier verifier = new SignatureVerifier(keys, ForkJoinPool.commonPool(), 1 << 20);
+            verifier.verify(signed);
+            return () -> verifier.verify(signed);
+        }
+        return () -> new SignatureVerifier(keys, ForkJoinPool.commonPool(), 1 << 20).verify(signed);
+    }
+
+    @Override
+    public Supplier<Object> blockCodec(String operation, int transactions) {
+        Block block = block(transactions);
+        String text = block.toString();
+        ByteBuffer record = CompactCodec.encode(block);
+        switch (operation) {
+            case "encodeText":
+                return block::toString;
+            case "decodeText":
+                return () -> ChainVerifier.parse(new BufferedReader(new StringReader(text)), Difficulty.DEFAULT).next();
+            case "encodeCompact":
+                ByteBuffer out = ByteBuffer.allocate(record.remaining());
+                return () -> {
+                    CompactCodec.write(block, out.clear());
+                    return out.position();
+                };
+            case "decodeCompact":
+                return () -> CompactCodec.read(record.duplicate());
+            case "viewCompact":
+                CompactCodec.BlockView view = new CompactCodec.BlockView();
+                return () -> {
+                    CompactCodec.TransactionView txn = view.wrap(record).transactions();
+                    long total = 0;
+                    while (txn.next()) {
+                        total += txn.amount();
+                    }
+                    return total;
+                };
+            default:
+                throw new IllegalArgumentException("Unknown codec operation: " + operation);
+        }
+    }
+
+    @Override
+    public int encodedBlockSize(String format, int transactions) {
+        Block block = block(transactions);
+        switch (format) {
+            case "text":
+                return block.toString().getBytes(StandardCharsets.UTF_8).length;
+            case "compact":
+                return CompactCodec.encodedSize(block);
+            default:
+                throw new IllegalArgumentException("Unknown block format: " + format);
+        }
+    }
+
+    private static Block block(int transactions) {
+        Hash256 prev = CryptoUtil.sha3("parent".getBytes(StandardCharsets.UTF_8));
+        return new Block(2, prev, transactions(new Random(SEED), 100, transactions), Miner.withId("MINER0"));
+    }
+
+    static List<Transaction> transactions(Random random, int accounts, int count) {
+        List<Transaction> txns = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            txns.add(new Transaction("acc" + random.nextInt(accounts), "acc" + random.nextInt(accounts),
+                    1 + random.nextInt(100), random.nextInt(10)));
+        }
+        return txns;
+    }
+
+    static List<Miner> miners(Random random, int count) {
+        List<Miner> miners = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            miners.add(new Miner("miner" + i, 1 + random.nextInt(10), slotScores(random)));
+        }
+        return miners;
+    }
+
+    // Generates input in the format BlockChain.main reads from stdin
+    static byte[] input(Random random, int accounts, int transactions, int miners) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(accounts).append('\n');
+        for (int i = 0; i < accounts; i++) {
+            sb.append("acc").append(i).append(' ').append(random.nextInt(1000)).append('\n');
+        }
+        sb.append(transactions).append('\n');
+        for (Transaction txn : transactions(random, accounts, transactions)) {
+            sb.append(txn.from).append(' ').append(txn.to).append(' ')
+                    .append(txn.amount).append(' ').append(txn.incentive).append('\n');
+        }
+        sb.append(50).append('\n');
+        sb.append(miners).append('\n');
+        for (int i = 0; i < miners; i++) {
+            sb.append("miner").append(i).append(' ').append(1 + random.nextInt(10));
+            for (int score : slotScores(random)) {
+                sb.append(' ').append(score);
+            }
+            sb.append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int[] slotScores(Random random) {
+        int[] scores = new int[8];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextInt(5);
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding one block in the printed text format and as a {@code CompactCodec} record,
+ * and reading the record through the flyweight view. The encoded sizes are printed during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CodecBenchmark {
+
+    @Param({"4", "1000"})
+    public int transactions;
+
+    private Supplier<Object> encodeText;
+    private Supplier<Object> decodeText;
+    private Supplier<Object> encodeCompact;
+    private Supplier<Object> decodeCompact;
+    private Supplier<Object> viewCompact;
+
+    @Setup
+    public void setup() {
+        Fixtures fixtures = Fixtures.load();
+        encodeText = fixtures.blockCodec("encodeText", transactions);
+        decodeText = fixtures.blockCodec("decodeText", transactions);
+        encodeCompact = fixtures.blockCodec("encodeCompact", transactions);
+        decodeCompact = fixtures.blockCodec("decodeCompact", transactions);
+        viewCompact = fixtures.blockCodec("viewCompact", transactions);
+        System.out.println("Block with " + transactions + " transactions: text "
+                + fixtures.encodedBlockSize("text", transactions) + " bytes, compact "
+                + fixtures.encodedBlockSize("compact", transactions) + " bytes");
+    }
+
+    @Benchmark
+    public Object encodeText() {
+        return encodeText.get();
+    }
+
+    @Benchmark
+    public Object decodeText() {
+        return decodeText.get();
+    }
+
+    @Benchmark
+    public Object encodeCompact() {
+        return encodeCompact.get();
+    }
+
+    @Benchmark
+    public Object decodeCompact() {
+        return decodeCompact.get();
+    }
+
+    @Benchmark
+    public Object viewCompact() {
+        return viewCompact.get();
+    }
+}
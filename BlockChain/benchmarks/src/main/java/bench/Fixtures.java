@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.function.Supplier;
+
+/**
+ * Prepared workloads over the Stage 6 classes.
+ *
+ * <p>Stage 6 lives in the unnamed package, which JMH benchmark classes cannot import, so the
+ * workloads are built by {@code Stage6Fixtures} in the unnamed package and handed over as
+ * suppliers. Each call to {@link Supplier#get()} runs one operation and returns its result.
+ */
+public interface Fixtures {
+
+    Supplier<Object> hashString(int length);
+
+    Supplier<Object> merkleRoot(int transactions);
+
+    Supplier<Object> computeNonce();
+
+    /**
+     * One proof-of-work attempt per call on successive nonces, using the given loop: {@code "original"}
+     * (the Stage 4/5 string loop), {@code "digest"} (a reused MessageDigest over a byte preimage) or
+     * {@code "midstate"} (the block hash absorbed once into a cached Keccak state).
+     */
+    Supplier<Object> nonceAttempt(String loop);
+
+    Supplier<Object> selectMiner(int miners);
+
+    Supplier<Object> pipeline(int accounts, int transactions, int miners);
+
+    /**
+     * One block's worth of {@code StateTree} work per call: {@code touched} accounts out of
+     * {@code accounts} get new balances and the state root is recomputed.
+     */
+    Supplier<Object> stateRoot(int accounts, int touched);
+
+    /**
+     * Signature checks for a batch of {@code transactions} Ed25519-signed transactions per call,
+     * split across the common fork-join pool. With {@code cached} the batch has been verified before,
+     * so every transaction should be answered from the verified-transaction cache.
+     */
+    Supplier<Object> verifySignatures(int transactions, boolean cached);
+
+    /**
+     * One block of {@code transactions} transactions per call, in the given operation:
+     * {@code "encodeText"} / {@code "decodeText"} for the printed format, {@code "encodeCompact"} /
+     * {@code "decodeCompact"} for {@code CompactCodec} records, or {@code "viewCompact"}, which sums a
+     * block's amounts through the flyweight view without building any {@code Transaction}.
+     */
+    Supplier<Object> blockCodec(String operation, int transactions);
+
+    /** Encoded size in bytes of the {@link #blockCodec} block in {@code "text"} or {@code "compact"} form. */
+    int encodedBlockSize(String format, int transactions);
+
+    static Fixtures load() {
+        try {
+            return (Fixtures) Class.forName("Stage6Fixtures").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Stage 6 fixtures are not on the classpath", e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code Block.computeMerkleRoot} for a block of {@code transactions} transactions, including the
+ * leaf hashes: every call works on new {@code Transaction} copies with nothing cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MerkleRootBenchmark {
+
+    @Param({"4", "1000", "100000"})
+    public int transactions;
+
+    private Supplier<Object> merkleRoot;
+
+    @Setup
+    public void setup() {
+        merkleRoot = Fixtures.load().merkleRoot(transactions);
+    }
+
+    @Benchmark
+    public Object computeMerkleRoot() {
+        return merkleRoot.get();
+    }
+}
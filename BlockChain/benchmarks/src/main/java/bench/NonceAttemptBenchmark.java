@@ -0,0 +1,44 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Proof-of-work attempts per second for the hash-then-check loop of Stage 4 ({@code findNonce}) and
+ * Stage 5/6 ({@code computeNonce}), which both hash a 64-character block hash followed by the nonce.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NonceAttemptBenchmark {
+
+    @Param({"original", "digest", "midstate"})
+    public String loop;
+
+    private Supplier<Object> attempt;
+
+    @Setup
+    public void setup() {
+        attempt = Fixtures.load().nonceAttempt(loop);
+    }
+
+    @Benchmark
+    public Object attempt() {
+        return attempt.get();
+    }
+}
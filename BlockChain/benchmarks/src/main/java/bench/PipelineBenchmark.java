@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The full {@code BlockChain.main} run on generated stdin input, with output discarded. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PipelineBenchmark {
+
+    @Param({"1000", "10000"})
+    public int transactions;
+
+    @Param({"100"})
+    public int accounts;
+
+    @Param({"100"})
+    public int miners;
+
+    private Supplier<Object> pipeline;
+
+    @Setup
+    public void setup() {
+        pipeline = Fixtures.load().pipeline(accounts, transactions, miners);
+    }
+
+    @Benchmark
+    public Object main() {
+        return pipeline.get();
+    }
+}
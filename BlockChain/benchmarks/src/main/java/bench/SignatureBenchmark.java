@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batch Ed25519 verification of signed transactions. The uncached case should scale with the
+ * number of cores; the cached case is one SHA3 and a set lookup per transaction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SignatureBenchmark {
+
+    @Param({"4096"})
+    public int transactions;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private Supplier<Object> verify;
+
+    @Setup
+    public void setup() {
+        verify = Fixtures.load().verifySignatures(transactions, cached);
+    }
+
+    @Benchmark
+    public Object verifyBatch() {
+        return verify.get();
+    }
+}
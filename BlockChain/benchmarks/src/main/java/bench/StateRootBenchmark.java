@@ -0,0 +1,47 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Incremental {@code StateTree} update for one block touching {@code touched} accounts. The time
+ * should grow with the logarithm of {@code accounts}, not with the account count itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StateRootBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int accounts;
+
+    @Param({"9"})
+    public int touched;
+
+    private Supplier<Object> stateRoot;
+
+    @Setup
+    public void setup() {
+        stateRoot = Fixtures.load().stateRoot(accounts, touched);
+    }
+
+    @Benchmark
+    public Object updateStateRoot() {
+        return stateRoot.get();
+    }
+}